@@ -0,0 +1,240 @@
+package benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Minimal measuring loop for the benchmarks.
+ *
+ * Every benchmark runs in a JVM of its own, started with the same JVM
+ * arguments and class path and told which benchmark to measure through the
+ * bench.fork system property. The JIT then only ever sees one Operation at
+ * the call site in the loop, and profiles do not leak from one benchmark into
+ * the next. With forks set to 0 all benchmarks run in the current JVM, which
+ * is quicker but mixes the profiles.
+ *
+ * An operation is run in a loop for a fixed time to warm up, then measured in
+ * several rounds of the same length. The clock is read once per batch of
+ * operations, batches are made longer until one takes BATCH_NANOS. Time and
+ * allocated bytes of every round are divided by the number of operations run
+ * in it. Allocation is read from the current thread through
+ * com.sun.management.ThreadMXBean, where the runtime has it.
+ *
+ * Results of the operations are summed and stored in a volatile field after
+ * every batch, so that the JIT cannot drop the work.
+ */
+public class Bench {
+
+	/**
+	 * A benchmarked operation. Runs one operation and returns anything that
+	 * depends on its result.
+	 */
+	public interface Operation {
+		long run();
+	}
+
+	/* Name and parameters of the benchmark a forked JVM measures */
+	private static final String FORK_PROPERTY = "bench.fork";
+
+	/* Reading the clock takes some 25ns, a tiny part of a batch this long */
+	private static final long BATCH_NANOS = 100000;
+	private static final int MAX_BATCH = 1 << 20;
+
+	private static final String HEADER = String.format(Locale.ROOT,
+			"%-34s %-28s %12s %10s %12s %10s", "Benchmark", "Parameters", "ns/op",
+			"error", "B/op", "MB/s");
+
+	private final Class<?> benchmarks;
+	private final long warmupMillis;
+	private final long roundMillis;
+	private final int rounds;
+	private final int forks;
+	private final String filter;
+
+	/* Set in a forked JVM only */
+	private final String fork;
+
+	private final com.sun.management.ThreadMXBean allocation;
+
+	/* Results go here even while a benchmark replaces System.out */
+	private final PrintStream out = System.out;
+
+	private volatile long sink;
+
+	/**
+	 * @param benchmarks
+	 *            Main class of the benchmarks, a forked JVM runs its main
+	 *            method without arguments
+	 * @param forks
+	 *            JVMs started for every benchmark, each prints a line of
+	 *            results. 0 measures in the current JVM
+	 * @param filter
+	 *            Only benchmarks whose name contains it are run, null runs all
+	 */
+	public Bench(Class<?> benchmarks, long warmupMillis, long roundMillis, int rounds,
+			int forks, String filter) {
+		this.benchmarks = benchmarks;
+		this.warmupMillis = warmupMillis;
+		this.roundMillis = roundMillis;
+		this.rounds = rounds;
+		this.forks = forks;
+		this.filter = filter;
+		this.fork = System.getProperty(FORK_PROPERTY);
+
+		ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		if (threads instanceof com.sun.management.ThreadMXBean
+				&& ((com.sun.management.ThreadMXBean) threads).isThreadAllocatedMemorySupported()) {
+			allocation = (com.sun.management.ThreadMXBean) threads;
+			allocation.setThreadAllocatedMemoryEnabled(true);
+		} else {
+			allocation = null;
+		}
+		if (fork == null) {
+			out.println(HEADER);
+		}
+	}
+
+	/**
+	 * @return true in a JVM that was started to measure a single benchmark
+	 */
+	public boolean isFork() {
+		return fork != null;
+	}
+
+	public boolean selected(String name) {
+		if (fork != null) {
+			return fork.startsWith(name + " | ");
+		}
+		return filter == null || name.contains(filter);
+	}
+
+	/**
+	 * Measures the operation and prints a line with the results. Unless forks
+	 * is 0, the operation is measured in new JVMs and this one only waits for
+	 * them.
+	 */
+	public void measure(String name, String parameters, Operation operation) {
+		if (selected(name) == false) {
+			return;
+		}
+		if (fork == null && forks > 0) {
+			for (int i = 0; i < forks; i++) {
+				fork(name, parameters);
+			}
+			return;
+		}
+		if (fork != null && fork.equals(name + " | " + parameters) == false) {
+			return;
+		}
+
+		run(operation, warmupMillis, 1);
+		int batch = calibrate(operation);
+
+		double[] nanos = new double[rounds];
+		double bytes = 0;
+		double seconds = 0;
+		double allocated = 0;
+		for (int i = 0; i < rounds; i++) {
+			long startBytes = allocatedBytes();
+			long start = System.nanoTime();
+			long count = run(operation, roundMillis, batch);
+			long elapsed = System.nanoTime() - start;
+			long roundBytes = allocatedBytes() - startBytes;
+
+			nanos[i] = (double) elapsed / count;
+			bytes += (double) roundBytes / count;
+			seconds += elapsed / 1e9;
+			allocated += roundBytes;
+		}
+
+		double mean = 0;
+		for (double value : nanos) {
+			mean += value;
+		}
+		mean /= rounds;
+		double variance = 0;
+		for (double value : nanos) {
+			variance += (value - mean) * (value - mean);
+		}
+		double error = rounds > 1 ? Math.sqrt(variance / (rounds - 1)) : 0;
+
+		if (allocation == null) {
+			out.println(String.format(Locale.ROOT, "%-34s %-28s %12.1f %10.1f %12s %10s",
+					name, parameters, mean, error, "n/a", "n/a"));
+		} else {
+			out.println(String.format(Locale.ROOT,
+					"%-34s %-28s %12.1f %10.1f %12.1f %10.1f", name, parameters, mean,
+					error, bytes / rounds, allocated / seconds / (1024 * 1024)));
+		}
+	}
+
+	/* Runs the benchmarks class again in a new JVM, measuring one benchmark */
+	private void fork(String name, String parameters) {
+		List<String> command = new ArrayList<String>();
+		command.add(new File(new File(System.getProperty("java.home"), "bin"), "java").getPath());
+		command.addAll(ManagementFactory.getRuntimeMXBean().getInputArguments());
+		command.add("-D" + FORK_PROPERTY + "=" + name + " | " + parameters);
+		command.add("-cp");
+		command.add(System.getProperty("java.class.path"));
+		command.add(benchmarks.getName());
+
+		int status;
+		try {
+			status = new ProcessBuilder(command).inheritIO().start().waitFor();
+		} catch (IOException e) {
+			throw new UncheckedIOException("Cannot start a JVM for " + name, e);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while measuring " + name, e);
+		}
+		if (status != 0) {
+			throw new IllegalStateException(String.format("Benchmark %s %s failed, exit code %d",
+					name, parameters, status));
+		}
+	}
+
+	/* Doubles the batch until running it takes BATCH_NANOS */
+	private int calibrate(Operation operation) {
+		int batch = 1;
+		while (batch < MAX_BATCH) {
+			long start = System.nanoTime();
+			long result = 0;
+			for (int i = 0; i < batch; i++) {
+				result += operation.run();
+			}
+			sink += result;
+			if (System.nanoTime() - start >= BATCH_NANOS) {
+				break;
+			}
+			batch *= 2;
+		}
+		return batch;
+	}
+
+	/* Runs the operation in batches for about the given time, returns the count */
+	private long run(Operation operation, long millis, int batch) {
+		long end = System.nanoTime() + millis * 1000000L;
+		long count = 0;
+		do {
+			long result = 0;
+			for (int i = 0; i < batch; i++) {
+				result += operation.run();
+			}
+			sink += result;
+			count += batch;
+		} while (System.nanoTime() < end);
+		return count;
+	}
+
+	private long allocatedBytes() {
+		return allocation == null ? 0 : allocation.getThreadAllocatedBytes(Thread.currentThread()
+				.getId());
+	}
+}
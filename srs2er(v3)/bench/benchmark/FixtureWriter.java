@@ -0,0 +1,60 @@
+package benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.JAXBException;
+import javax.xml.bind.Marshaller;
+
+import nlp.objects.Sentence;
+import nlp.objects.Sentences;
+import nlp.processing.StanfordProcessor;
+
+/**
+ * Tags the test documents with the pipeline and writes their sentences to
+ * Fixtures.TESTING_FIXTURE, in the format of the training files. Needs the
+ * CoreNLP models. Run it once, the benchmarks then read the fixture instead
+ * of annotating.
+ *
+ * The documents are saved in Cp1252, like the sources.
+ */
+public class FixtureWriter {
+
+	private static final String TESTING_DIRECTORY = "data/testing";
+	private static final Charset DOCUMENT_CHARSET = Charset.forName("Cp1252");
+
+	public static void main(String[] args) throws IOException, JAXBException {
+		File[] documents = new File(TESTING_DIRECTORY).listFiles();
+		Arrays.sort(documents);
+
+		ArrayList<Sentence> sentences = new ArrayList<Sentence>();
+		for (File document : documents) {
+			if (document.getName().endsWith(".txt") == false) {
+				continue;
+			}
+			for (String paragraph : Files.readAllLines(document.toPath(), DOCUMENT_CHARSET)) {
+				if (paragraph.trim().isEmpty() == false) {
+					sentences.addAll(StanfordProcessor.getInstance().AnnotateParagraph(paragraph));
+				}
+			}
+		}
+		for (int i = 0; i < sentences.size(); i++) {
+			sentences.get(i).setId(i + 1);
+		}
+
+		Sentences fixture = new Sentences();
+		fixture.setSentence(sentences);
+
+		File output = new File(Fixtures.TESTING_FIXTURE);
+		output.getParentFile().mkdirs();
+		Marshaller marshaller = JAXBContext.newInstance(Sentences.class).createMarshaller();
+		marshaller.setProperty(Marshaller.JAXB_FORMATTED_OUTPUT, Boolean.TRUE);
+		marshaller.marshal(fixture, output);
+		System.out.println(String.format("Wrote %d sentences to %s", sentences.size(), output));
+	}
+}
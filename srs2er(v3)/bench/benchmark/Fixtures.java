@@ -0,0 +1,135 @@
+package benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import javax.xml.bind.JAXBException;
+
+import nlp.objects.Sentence;
+import nlp.objects.SentenceReader;
+import nlp.objects.Word;
+import nlp.processing.LemmaDictionary;
+
+/**
+ * Tagged sentences for the benchmarks. Nothing is annotated here, so the
+ * benchmarks run without the CoreNLP models.
+ *
+ * The training sentences come tagged and lemmatized. The test documents are
+ * plain text, their sentences are read tagged from TESTING_FIXTURE. The
+ * fixture in the tree was tagged with the tags and lemmas the training
+ * sentences give each word, FixtureWriter writes it again with the pipeline.
+ */
+public class Fixtures {
+
+	public static final String TRAINING_FILE = "data/training/MegaTraining.xml";
+	public static final String TESTING_FIXTURE = "bench/fixtures/testing.xml";
+
+	/* Same seed on every run, so that the tries are the same */
+	private static final long SEED = 42;
+
+	/** Sentences by number of tokens */
+	public enum Length {
+		SHORT(0, 6), MEDIUM(7, 9), LONG(10, Integer.MAX_VALUE);
+
+		final int min;
+		final int max;
+
+		Length(int min, int max) {
+			this.min = min;
+			this.max = max;
+		}
+
+		boolean contains(Sentence sentence) {
+			int size = sentence.getTokens().size();
+			return size >= min && size <= max;
+		}
+	}
+
+	private final List<Sentence> training;
+	private final List<Sentence> testing;
+
+	public Fixtures() throws JAXBException, IOException {
+		training = read(new File(TRAINING_FILE));
+		Collections.shuffle(training, new Random(SEED));
+
+		File fixture = new File(TESTING_FIXTURE);
+		testing = fixture.exists() ? read(fixture) : Collections.<Sentence> emptyList();
+
+		addLemmas(training);
+		addLemmas(testing);
+	}
+
+	private static List<Sentence> read(File file) throws JAXBException, IOException {
+		List<Sentence> sentences = new ArrayList<Sentence>();
+		try (SentenceReader reader = new SentenceReader(file)) {
+			Sentence sentence;
+			while ((sentence = reader.next()) != null) {
+				if (sentence.getTokens().isEmpty() == false) {
+					sentences.add(sentence);
+				}
+			}
+		}
+		return sentences;
+	}
+
+	/*
+	 * Lookups name the data model after the words of the sentence, see
+	 * Lookup.processDataModel, and lemmatize the names. The lemmas of every
+	 * run of words are known from the tokens, so the pipeline is never asked.
+	 */
+	private static void addLemmas(List<Sentence> sentences) {
+		LemmaDictionary dictionary = LemmaDictionary.getInstance();
+		dictionary.add("", "");
+		for (Sentence sentence : sentences) {
+			List<Word> tokens = sentence.getTokens();
+			for (int from = 0; from < tokens.size(); from++) {
+				StringBuilder name = new StringBuilder();
+				StringBuilder lemma = new StringBuilder();
+				for (int to = from; to < tokens.size(); to++) {
+					if (to > from) {
+						name.append(' ');
+						lemma.append('_');
+					}
+					name.append(tokens.get(to).getName());
+					lemma.append(tokens.get(to).getLemmatizedName());
+					dictionary.add(name.toString().toLowerCase(), lemma.toString().toLowerCase());
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return the first part of the shuffled training sentences, the trie is
+	 *         built from these
+	 */
+	public List<Sentence> training(int percent) {
+		return training.subList(0, training.size() * percent / 100);
+	}
+
+	/**
+	 * @return training and test sentences of the given length, looked up
+	 *         against the tries
+	 */
+	public List<Sentence> queries(Length length) {
+		List<Sentence> queries = new ArrayList<Sentence>();
+		for (Sentence sentence : training) {
+			if (length.contains(sentence)) {
+				queries.add(sentence);
+			}
+		}
+		for (Sentence sentence : testing) {
+			if (length.contains(sentence)) {
+				queries.add(sentence);
+			}
+		}
+		return queries;
+	}
+
+	public boolean hasTesting() {
+		return testing.isEmpty() == false;
+	}
+}
@@ -0,0 +1,236 @@
+package benchmark;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Level;
+
+import nlp.objects.Sentence;
+import nlp.objects.TagDataLoader;
+import nlp.processing.EditDistance;
+import trie.FrozenTrie;
+import trie.LeafNode;
+import trie.Lookup;
+import trie.Trie;
+import trie.serial.Branch;
+import trie.serial.Match;
+import trie.serial.SerialTrie;
+import util.Tuple;
+import benchmark.Fixtures.Length;
+import erTagger.ERTagger;
+
+/**
+ * Benchmarks of the matching hot paths, on tries of several sizes and on
+ * sentences of several lengths.
+ *
+ * Usage: MatchingBenchmark [filter]. Only benchmarks whose name contains the
+ * filter are run. Times are set with the system properties bench.warmup and
+ * bench.time (milliseconds) and bench.rounds, the JVMs started for every
+ * benchmark with bench.forks. Run from the project directory, the data is
+ * read from data/.
+ */
+public class MatchingBenchmark {
+
+	/* Percentage of the training sentences the tries are built from */
+	private static final int[] TRIE_SIZES = { 25, 50, 100 };
+
+	/* Sentences and branches paired up for the edit distance */
+	private static final int PAIRED = 64;
+
+	/* Same cost limits as Paragraph uses */
+	private static final Tuple<Integer, Integer> LOOKUP_COST = new Tuple<Integer, Integer>(100, 80);
+
+	private static final PrintStream DISCARD = new PrintStream(new OutputStream() {
+		@Override
+		public void write(int b) {
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) {
+		}
+	});
+
+	public static void main(String[] args) throws Exception {
+		ERTagger.LOGGER.setLevel(Level.OFF);
+		TagDataLoader.getInstance().Load();
+
+		Bench bench = new Bench(MatchingBenchmark.class, Long.getLong("bench.warmup", 1000),
+				Long.getLong("bench.time", 1000), Integer.getInteger("bench.rounds", 5),
+				Integer.getInteger("bench.forks", 1), args.length > 0 ? args[0] : null);
+		Fixtures fixtures = new Fixtures();
+		if (fixtures.hasTesting() == false && bench.isFork() == false) {
+			System.out.println("No " + Fixtures.TESTING_FIXTURE
+					+ ", querying with training sentences only. See FixtureWriter.");
+		}
+
+		for (int size : TRIE_SIZES) {
+			benchmarkBuild(bench, fixtures.training(size), size);
+		}
+
+		for (int size : TRIE_SIZES) {
+			Trie trie = build(fixtures.training(size));
+			SerialTrie sTrie = new SerialTrie(trie);
+			sTrie.useTrieMatcher(FrozenTrie.freeze(trie));
+			List<Branch> branches = branches(sTrie, fixtures.training(size).get(0));
+
+			for (Length length : Length.values()) {
+				String parameters = String.format("trie=%d%% length=%s", size, length);
+				List<Sentence> queries = fixtures.queries(length);
+				if (queries.isEmpty()) {
+					continue;
+				}
+				if (size == 100) {
+					/* Pairs do not depend on the trie size */
+					benchmarkEditDistance(bench, queries, branches, "length=" + length);
+				}
+				benchmarkLookup(bench, trie, queries, parameters);
+				benchmarkSerialLookup(bench, sTrie, queries, parameters);
+			}
+		}
+	}
+
+	private static Trie build(List<Sentence> sentences) {
+		Trie trie = new Trie();
+		for (Sentence sentence : sentences) {
+			trie.insert(sentence);
+		}
+		return trie;
+	}
+
+	/* Every branch of the trie, in branch order */
+	private static List<Branch> branches(SerialTrie sTrie, Sentence any) {
+		List<Branch> branches = new ArrayList<Branch>();
+		for (Match match : sTrie.match(any, Integer.MAX_VALUE)) {
+			branches.add(match.getBranch());
+		}
+		return branches;
+	}
+
+	private static void benchmarkBuild(Bench bench, final List<Sentence> sentences, int size) {
+		String parameters = String.format("trie=%d%% sentences=%d", size, sentences.size());
+		bench.measure("Trie.insert (per sentence)", parameters, new Bench.Operation() {
+			private Trie trie = new Trie();
+			private int next;
+
+			@Override
+			public long run() {
+				if (next == sentences.size()) {
+					trie = new Trie();
+					next = 0;
+				}
+				trie.insert(sentences.get(next++));
+				return next;
+			}
+		});
+
+		final Trie trie = build(sentences);
+		bench.measure("new SerialTrie(trie)", parameters, new Bench.Operation() {
+			@Override
+			public long run() {
+				return System.identityHashCode(new SerialTrie(trie));
+			}
+		});
+	}
+
+	private static void benchmarkEditDistance(Bench bench, List<Sentence> queries,
+			List<Branch> branches, String parameters) {
+		final int count = Math.min(PAIRED, queries.size());
+		final Sentence[] sentences = new Sentence[count];
+		final Branch[] targets = new Branch[count];
+		for (int i = 0; i < count; i++) {
+			sentences[i] = queries.get(i * queries.size() / count);
+			targets[i] = branches.get(i * branches.size() / count);
+		}
+
+		bench.measure("EditDistance.editDistance", parameters, new Bench.Operation() {
+			private int next;
+
+			@Override
+			public long run() {
+				next = (next + 1) % count;
+				return EditDistance.editDistance(sentences[next], targets[next]);
+			}
+		});
+		bench.measure("EditDistance.editDistance banded", parameters, new Bench.Operation() {
+			private int next;
+
+			@Override
+			public long run() {
+				next = (next + 1) % count;
+				return EditDistance.editDistance(sentences[next], targets[next],
+						SerialTrie.COST_THRESHOLD);
+			}
+		});
+		bench.measure("EditDistance.editDistanceExtended", parameters, new Bench.Operation() {
+			private int next;
+
+			@Override
+			public long run() {
+				next = (next + 1) % count;
+				return EditDistance.editDistanceExtended(sentences[next], targets[next]).first();
+			}
+		});
+	}
+
+	/*
+	 * Sentences that have an exact path in the trie only take the strict
+	 * match, the others go on to the advanced lookup.
+	 */
+	private static void benchmarkLookup(Bench bench, final Trie trie, List<Sentence> queries,
+			String parameters) {
+		final List<Sentence> strict = new ArrayList<Sentence>();
+		final List<Sentence> advanced = new ArrayList<Sentence>();
+		for (Sentence sentence : queries) {
+			LeafNode leaf = Lookup.lookup(trie, sentence, LOOKUP_COST);
+			(leaf != null ? strict : advanced).add(sentence);
+		}
+
+		if (strict.isEmpty() == false) {
+			bench.measure("Lookup.lookup strict", parameters, new Bench.Operation() {
+				private int next;
+
+				@Override
+				public long run() {
+					next = (next + 1) % strict.size();
+					return Lookup.lookup(trie, strict.get(next), LOOKUP_COST) != null ? 1 : 0;
+				}
+			});
+		}
+		if (advanced.isEmpty() == false) {
+			bench.measure("Lookup.lookup advanced", parameters, new Bench.Operation() {
+				private int next;
+
+				@Override
+				public long run() {
+					next = (next + 1) % advanced.size();
+					return Lookup.lookup(trie, advanced.get(next), LOOKUP_COST) != null ? 1 : 0;
+				}
+			});
+		}
+	}
+
+	/* SerialTrie.Lookup prints every match, the printing is measured too */
+	private static void benchmarkSerialLookup(Bench bench, final SerialTrie sTrie,
+			final List<Sentence> queries, String parameters) {
+		if (bench.selected("SerialTrie.Lookup") == false) {
+			return;
+		}
+		PrintStream out = System.out;
+		System.setOut(DISCARD);
+		try {
+			bench.measure("SerialTrie.Lookup", parameters, new Bench.Operation() {
+				private int next;
+
+				@Override
+				public long run() {
+					next = (next + 1) % queries.size();
+					sTrie.Lookup(queries.get(next));
+					return next;
+				}
+			});
+		} finally {
+			System.setOut(out);
+		}
+	}
+}
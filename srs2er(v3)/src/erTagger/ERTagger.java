@@ -3,23 +3,43 @@ package erTagger;
 import java.io.File;
 import java.io.IOException;
 import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
-import javax.xml.bind.JAXBContext;
 import javax.xml.bind.JAXBException;
-import javax.xml.bind.Unmarshaller;
-import javax.xml.bind.ValidationEvent;
-import javax.xml.bind.ValidationEventHandler;
 
+import nlp.objects.Model;
+import nlp.objects.ModelMerger;
+import nlp.objects.Paragraph;
 import nlp.objects.Sentence;
+import nlp.objects.SentenceReader;
 import nlp.objects.Sentences;
 import nlp.objects.TagDataLoader;
+import nlp.processing.LemmaDictionary;
 import nlp.processing.StanfordProcessor;
+import nlp.processing.Stopwords;
+import trie.FrozenTrie;
 import trie.Trie;
+import trie.serial.Match;
 import trie.serial.SerialTrie;
+import trie.serial.TrieSnapshot;
 import util.logging.LoggerSetup;
+import util.logging.Trace;
 
 /**
  * This is the tagger class that can actually be used in the program.
@@ -31,9 +51,19 @@ public class ERTagger
 {
 
 	private static final String[] trainingDataFiles = {"data/training/MegaTraining.xml"};
+	private static final String snapshotFile = "data/training/trie.snapshot";
+	/* Consecutive training sentences inserted into one partial trie */
+	private static final int TRAINING_CHUNK = 64;
 	// private static final String statFile = "out/stat.csv";
 
-	SerialTrie sTrie;
+	/*
+	 * The trained model. Replaced as a whole when training sentences are
+	 * added, so a lookup that read it keeps a consistent view.
+	 */
+	private volatile TrainedModel model;
+
+	/* Threads used to score the branches, 1 scores on the calling thread */
+	private int parallelism = 1;
 
 	private Logger logger = Logger.getLogger(this.getClass().getName());
 	public ERTagger() throws JAXBException, IOException
@@ -41,24 +71,162 @@ public class ERTagger
 		LoggerSetup.setup(logger);
 		logger.setLevel(Level.ALL);
 
-		logger.info("Training model");
-		trainModel();
+		logger.info("Loading model");
+		loadModel();
+	}
+
+	/**
+	 * Restores the trained model from the snapshot. Falls back to training from
+	 * the XML files if the snapshot is missing, corrupt or stale.
+	 */
+	public void loadModel() throws JAXBException, IOException
+	{
+		TrieSnapshot snapshot = TrieSnapshot.read(new File(snapshotFile), snapshotSources());
+		if (snapshot == null)
+		{
+			logger.info("Training model");
+			trainModel();
+			return;
+		}
+
+		logger.info("Trie restored from snapshot.");
+		SerialTrie sTrie = snapshot.getSerialTrie();
+		sTrie.setParallelism(parallelism);
+		model = freezeModel(snapshot.getTrie(), sTrie);
+
+		logger.info("Loading TagData...");
+		TagDataLoader.getInstance().Load();
 	}
 
 	public void trainModel() throws JAXBException, IOException
 	{
 		/* Load and Train the Trie */
 		logger.info("Loading Trie with training sentences...");
-		Sentences sentences = loadTrainingSentences();
-		Trie trie = new Trie();
-		trie.insert(sentences);
+		Trie trie = buildTrie();
 
 		/* Create and insert data in Serial Trie from original Trie */
 		logger.info("Serializing trie...");
-		sTrie = new SerialTrie(trie);
+		SerialTrie sTrie = new SerialTrie(trie);
+		sTrie.setParallelism(parallelism);
+		model = freezeModel(trie, sTrie);
 
 		logger.info("Loading TagData...");
 		TagDataLoader.getInstance().Load();
+
+		exportModel();
+	}
+
+	/**
+	 * Adds training sentences to the trained model while it is in use. The
+	 * trie is copied on write, only the nodes and branches the sentences go
+	 * through are copied, and the new model is published at once. Lookups
+	 * that already started finish on the previous model and are never
+	 * blocked.
+	 * 
+	 * The frozen trie and the branches are updated along the same paths, see
+	 * FrozenTrie.update and SerialTrie.update. The rest of the frozen arrays
+	 * and of the branch list is copied in blocks, which is still linear in
+	 * the size of the trie, but nothing else is visited again.
+	 * 
+	 * The snapshot is not written again. It is only checked against the
+	 * training files, so the added sentences are not kept over a restart.
+	 */
+	public synchronized void addTrainingSentences(Sentences sentences)
+	{
+		TrainedModel current = model;
+		LemmaDictionary.getInstance().preload(sentences);
+
+		logger.info(String.format("Adding %d training sentences...",
+				sentences.getSentence().size()));
+		Trie trie = current.trie.withSentences(sentences.getSentence());
+		FrozenTrie frozenTrie = current.frozenTrie.update(current.trie, trie);
+		/* Scores on the pool of the current model */
+		SerialTrie sTrie = current.serialTrie.update(current.trie, current.frozenTrie, trie);
+		model = createModel(trie, frozenTrie, sTrie);
+	}
+
+	/**
+	 * Compiles the trained trie into its read only array form used for lookup.
+	 */
+	private TrainedModel freezeModel(Trie trie, SerialTrie sTrie)
+	{
+		logger.info("Freezing trie...");
+		return createModel(trie, FrozenTrie.freeze(trie), sTrie);
+	}
+
+	private TrainedModel createModel(Trie trie, FrozenTrie frozenTrie, SerialTrie sTrie)
+	{
+		sTrie.useTrieMatcher(frozenTrie);
+
+		if (logger.isLoggable(Level.CONFIG))
+		{
+			logger.config(String.format(
+					"Trie footprint: %d nodes, object trie %d bytes (%d with words), frozen trie %d bytes.",
+					frozenTrie.size() - 1, FrozenTrie.estimateObjectBytes(trie, false),
+					FrozenTrie.estimateObjectBytes(trie, true), frozenTrie.estimateBytes()));
+		}
+		return new TrainedModel(trie, frozenTrie, sTrie);
+	}
+
+	/**
+	 * Number of threads used to score a sentence against the branches of the
+	 * trie. Small tries are always scored on the calling thread.
+	 */
+	public synchronized void setParallelism(int parallelism)
+	{
+		this.parallelism = parallelism;
+		TrainedModel current = model;
+		if (current != null)
+		{
+			current.serialTrie.setParallelism(parallelism);
+		}
+	}
+
+	/**
+	 * Writes the trained trie to the snapshot, so that the next start does not
+	 * have to train again.
+	 */
+	public void exportModel()
+	{
+		logger.info("Exporting trie snapshot...");
+		try
+		{
+			TrainedModel current = model;
+			TrieSnapshot.write(new File(snapshotFile), current.trie, current.serialTrie,
+					snapshotSources());
+		}
+		catch (IOException ioe)
+		{
+			/* Not fatal. The model is trained, only the next start is slower. */
+			logger.warning("Failed to export trie snapshot: " + ioe.getMessage());
+		}
+	}
+
+	/* Trie with its frozen and serialized forms, never changed once built */
+	private static final class TrainedModel
+	{
+		final Trie trie;
+		final FrozenTrie frozenTrie;
+		final SerialTrie serialTrie;
+
+		TrainedModel(Trie trie, FrozenTrie frozenTrie, SerialTrie serialTrie)
+		{
+			this.trie = trie;
+			this.frozenTrie = frozenTrie;
+			this.serialTrie = serialTrie;
+		}
+	}
+
+	/* Every file the trained trie depends on */
+	private static List<File> snapshotSources()
+	{
+		List<File> sources = new ArrayList<File>();
+		for (String trainingFile : trainingDataFiles)
+		{
+			sources.add(new File(trainingFile));
+		}
+		sources.add(new File(Stopwords.FILE_PATH));
+		return sources;
 	}
 
 	public void tagFile(File file) throws IOException
@@ -72,20 +240,251 @@ public class ERTagger
 		}
 	}
 
+	/**
+	 * Tags many documents at once. Every line of a document is a paragraph,
+	 * and paragraphs, as well as the sentences of every paragraph, are tagged
+	 * concurrently on a fixed number of threads, one per processor.
+	 * 
+	 * @return one result per file, in the given order
+	 */
+	public List<TaggedDocument> tagFiles(List<Path> files) throws InterruptedException
+	{
+		return tagFiles(files, Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * Tags many documents at once, with the given number of threads. Every
+	 * paragraph is annotated by one task, which hands the lookup of each of
+	 * its sentences to the same threads. Only a few tasks per thread are
+	 * queued; when the queue is full the calling thread runs the task itself.
+	 * 
+	 * @return one result per file, in the given order. The sentences of every
+	 *         document are in document order. A document that cannot be read
+	 *         or tagged is reported as failed, the others are not affected.
+	 */
+	public List<TaggedDocument> tagFiles(List<Path> files, int threads)
+			throws InterruptedException
+	{
+		/* Load the models and costs before fanning out */
+		StanfordProcessor.getInstance();
+		TagDataLoader.costs();
+
+		final SerialTrie model = this.model.serialTrie;
+		final ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 0L,
+				TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>(threads * 4),
+				new ThreadPoolExecutor.CallerRunsPolicy());
+		try
+		{
+			/* Paragraph results of every document, null if it could not be read */
+			List<List<Future<List<TaggedSentence>>>> pending = new ArrayList<List<Future<List<TaggedSentence>>>>();
+			List<TaggedDocument> documents = new ArrayList<TaggedDocument>();
+			for (Path file : files)
+			{
+				List<String> paragraphs;
+				try
+				{
+					paragraphs = Files.readAllLines(file);
+				}
+				catch (IOException ioe)
+				{
+					logger.warning("Failed to read " + file + ": " + ioe.getMessage());
+					pending.add(null);
+					documents.add(new TaggedDocument(file, ioe));
+					continue;
+				}
+				logger.info(String.format("Number of paragraphs read from %s: %d", file,
+						paragraphs.size()));
+
+				List<Future<List<TaggedSentence>>> futures = new ArrayList<Future<List<TaggedSentence>>>();
+				for (int i = 0; i < paragraphs.size(); i++)
+				{
+					final int index = i;
+					final String paragraph = paragraphs.get(i);
+					futures.add(executor.submit(new Callable<List<TaggedSentence>>()
+					{
+						@Override
+						public List<TaggedSentence> call() throws InterruptedException
+						{
+							return tagParagraph(model, index, paragraph, executor);
+						}
+					}));
+				}
+				pending.add(futures);
+				documents.add(null);
+			}
+
+			for (int i = 0; i < files.size(); i++)
+			{
+				if (pending.get(i) == null)
+				{
+					continue;
+				}
+				List<TaggedSentence> sentences = new ArrayList<TaggedSentence>();
+				try
+				{
+					for (Future<List<TaggedSentence>> future : pending.get(i))
+					{
+						sentences.addAll(future.get());
+					}
+					documents.set(i, new TaggedDocument(files.get(i), sentences));
+				}
+				catch (ExecutionException ee)
+				{
+					logger.warning("Failed to tag " + files.get(i) + ": " + ee.getCause());
+					Throwable cause = ee.getCause();
+					documents.set(i, new TaggedDocument(files.get(i),
+							cause instanceof Exception ? (Exception) cause : ee));
+				}
+			}
+			return documents;
+		}
+		finally
+		{
+			executor.shutdownNow();
+		}
+	}
+
+	/*
+	 * Matches of every sentence of the paragraph, in order. The sentences are
+	 * looked up on the executor. A lookup that no thread has started yet when
+	 * its turn comes is run here, so waiting for it never holds up the
+	 * executor.
+	 */
+	private static List<TaggedSentence> tagParagraph(final SerialTrie model, final int index,
+			String paragraph, Executor executor) throws InterruptedException
+	{
+		List<FutureTask<TaggedSentence>> lookups = new ArrayList<FutureTask<TaggedSentence>>();
+		for (final Sentence sentence : StanfordProcessor.getInstance().AnnotateParagraph(paragraph))
+		{
+			FutureTask<TaggedSentence> lookup = new FutureTask<TaggedSentence>(
+					new Callable<TaggedSentence>()
+					{
+						@Override
+						public TaggedSentence call()
+						{
+							List<Match> matches = model.lookupTopK(sentence, Integer.MAX_VALUE,
+									SerialTrie.COST_THRESHOLD);
+							return new TaggedSentence(index, sentence.getValue(), matches);
+						}
+					});
+			executor.execute(lookup);
+			lookups.add(lookup);
+		}
+
+		List<TaggedSentence> tagged = new ArrayList<TaggedSentence>(lookups.size());
+		for (FutureTask<TaggedSentence> lookup : lookups)
+		{
+			/* Does nothing if the lookup was started already */
+			lookup.run();
+			try
+			{
+				tagged.add(lookup.get());
+			}
+			catch (ExecutionException ee)
+			{
+				Throwable cause = ee.getCause();
+				if (cause instanceof RuntimeException)
+				{
+					throw (RuntimeException) cause;
+				}
+				if (cause instanceof Error)
+				{
+					throw (Error) cause;
+				}
+				throw new IllegalStateException(cause);
+			}
+		}
+		return tagged;
+	}
+
+	/**
+	 * Data model of sentences that are already POS tagged, merged over all
+	 * sentences. See Paragraph.acquireDataModel.
+	 */
+	public Model acquireDataModel(List<Sentence> sentences)
+	{
+		Paragraph paragraph = new Paragraph(sentences);
+		paragraph.acquireDataModel(model.serialTrie);
+		return paragraph.getParagraphDataModel();
+	}
+
+	/**
+	 * Data model of a document of POS tagged paragraphs, merged over all
+	 * paragraphs. The model of every paragraph is acquired on the executor,
+	 * then the models are merged in document order, see ModelMerger. The
+	 * tasks do not wait for each other, so any executor can be used.
+	 */
+	public Model acquireDocumentModel(List<List<Sentence>> paragraphs, ExecutorService executor)
+			throws InterruptedException
+	{
+		final SerialTrie model = this.model.serialTrie;
+		List<Future<Model>> partials = new ArrayList<Future<Model>>(paragraphs.size());
+		try
+		{
+			for (final List<Sentence> sentences : paragraphs)
+			{
+				partials.add(executor.submit(new Callable<Model>()
+				{
+					@Override
+					public Model call()
+					{
+						Paragraph paragraph = new Paragraph(sentences);
+						paragraph.acquireDataModel(model);
+						return paragraph.getParagraphDataModel();
+					}
+				}));
+			}
+
+			ModelMerger document = new ModelMerger();
+			for (Future<Model> partial : partials)
+			{
+				document.add(partial.get());
+			}
+			return document.toModel();
+		}
+		catch (ExecutionException ee)
+		{
+			Throwable cause = ee.getCause();
+			if (cause instanceof RuntimeException)
+			{
+				throw (RuntimeException) cause;
+			}
+			if (cause instanceof Error)
+			{
+				throw (Error) cause;
+			}
+			throw new IllegalStateException(cause);
+		}
+		finally
+		{
+			/* Nothing left to do after a failure */
+			for (Future<Model> partial : partials)
+			{
+				partial.cancel(true);
+			}
+		}
+	}
+
 	public void tagParagraph(String paragraph)
 	{
 		LOGGER.info("Splitting and trying to tag sentence...");
 
-		List<String> sentences = StanfordProcessor.getInstance().ParagraphToSentences(paragraph);
-		for (String sentence : sentences)
+		List<Sentence> sentences = StanfordProcessor.getInstance().AnnotateParagraph(paragraph);
+		SerialTrie sTrie = model.serialTrie;
+		for (Sentence sentence : sentences)
 		{
-			sTrie.Lookup(new Sentence(sentence));
+			sTrie.Lookup(sentence);
 		}
 
 	}
 
 	public static final Logger LOGGER = Logger.getLogger("Global");
 
+	/* Diagnostics of the hot paths, per category so that each can be sampled */
+	public static final Trace TRIE_TRACE = new Trace(LOGGER, "trie");
+	public static final Trace LOOKUP_TRACE = new Trace(LOGGER, "lookup");
+	public static final Trace SCORING_TRACE = new Trace(LOGGER, "scoring");
+
 	public static void main(String[] args) throws JAXBException, IOException
 	{
 
@@ -94,7 +493,6 @@ public class ERTagger
 		LOGGER.setLevel(Level.INFO);
 
 		ERTagger tool = new ERTagger();
-		tool.trainModel();
 		tool.tagParagraph("A comment can be meant for the reviewer or for the author.");
 
 		/* Generate Statistics */
@@ -114,45 +512,212 @@ public class ERTagger
 		// p.saveAsXml(outputFile);
 	}
 
-	private static Sentences loadTrainingSentences() throws JAXBException
+	/**
+	 * Builds the trie from all training files. Parsing takes far longer than
+	 * inserting, so the files are read at the same time, one reader thread
+	 * per file up to one per processor. Every reader hands out the sentences
+	 * of its file in chunks of TRAINING_CHUNK consecutive sentences. Each
+	 * chunk is inserted into a partial trie of its own on the worker threads,
+	 * and whenever two neighbouring partial tries are done they are merged on
+	 * the workers as well, first within a file, then the files in order. The
+	 * result is the same as inserting all sentences into one trie. The names
+	 * of the data models are lemmatized together at the end.
+	 * 
+	 * The build is bound by parsing the largest file.
+	 */
+	private static Trie buildTrie() throws JAXBException, IOException
 	{
+		LOGGER.config("Unmarshalling training sentences...");
 
-		JAXBContext jc = JAXBContext.newInstance(Sentences.class);
-		Unmarshaller unmarshaller = jc.createUnmarshaller();
+		int threads = Runtime.getRuntime().availableProcessors();
+		/* Only a few chunks per thread wait, when the queue is full a reader builds the chunk */
+		ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 0L,
+				TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>(threads * 2),
+				new ThreadPoolExecutor.CallerRunsPolicy());
+		/* Readers wait for the workers, never the other way round */
+		ExecutorService readers = Executors.newFixedThreadPool(Math.max(1,
+				Math.min(threads, trainingDataFiles.length)));
+
+		/* Tries of the files not merged yet, in order */
+		List<Future<PartialTrie>> pending = new ArrayList<Future<PartialTrie>>();
+		PartialTrie result;
+		try
+		{
+			for (String trainingFile : trainingDataFiles)
+			{
+				pending.add(readers.submit(new FileTrie(trainingFile, executor)));
+			}
+			if (pending.isEmpty())
+			{
+				pending.add(executor.submit(new PartialTrie(new ArrayList<Sentence>())));
+			}
+			mergeChunks(executor, pending, true);
+			result = pending.get(0).get();
+		}
+		catch (InterruptedException ie)
+		{
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while building the trie", ie);
+		}
+		catch (ExecutionException ee)
+		{
+			/* Failures of chunks are wrapped by the reader of the file */
+			Throwable cause = ee.getCause();
+			while (cause instanceof ExecutionException)
+			{
+				cause = cause.getCause();
+			}
+			if (cause instanceof RuntimeException)
+			{
+				throw (RuntimeException) cause;
+			}
+			if (cause instanceof JAXBException)
+			{
+				throw (JAXBException) cause;
+			}
+			if (cause instanceof IOException)
+			{
+				throw (IOException) cause;
+			}
+			throw new IOException(cause);
+		}
+		finally
+		{
+			readers.shutdownNow();
+			executor.shutdownNow();
+		}
+
+		LemmaDictionary.getInstance().preload(result.names);
+		return result.trie;
+	}
 
-		/*
-		 * The following code overrides the default behavior of JABX which
-		 * silently ignores error. Source:
-		 * http://stackoverflow.com/questions/2633276
-		 * /jaxb-unmarshall-created-an-empty-object
-		 */
-		unmarshaller.setEventHandler(new ValidationEventHandler()
+	/*
+	 * Replaces every two neighbouring partial tries that are done by their
+	 * merge, submitted to the executor. With wait until only one is left.
+	 */
+	private static void mergeChunks(ExecutorService executor,
+			List<Future<PartialTrie>> pending, boolean wait)
+			throws InterruptedException, ExecutionException
+	{
+		while (true)
 		{
-			@Override
-			public boolean handleEvent(ValidationEvent event)
+			boolean merged = false;
+			for (int i = 0; i + 1 < pending.size(); i++)
 			{
-				throw new RuntimeException(event.getMessage(), event.getLinkedException());
+				if (pending.get(i).isDone() && pending.get(i + 1).isDone())
+				{
+					PartialTrie later = pending.remove(i + 1).get();
+					pending.set(i, executor.submit(new MergedTrie(pending.get(i).get(), later)));
+					merged = true;
+				}
 			}
-		});
+			if (wait == false || pending.size() == 1)
+			{
+				return;
+			}
+			if (merged == false)
+			{
+				/* Wait for the first one that is not done */
+				for (Future<PartialTrie> partial : pending)
+				{
+					if (partial.isDone() == false)
+					{
+						partial.get();
+						break;
+					}
+				}
+			}
+		}
+	}
 
-		Sentences sentences = new Sentences();
+	/* Trie of one training file, built from chunks on the executor */
+	private static final class FileTrie implements Callable<PartialTrie>
+	{
+		private final String trainingFile;
+		private final ExecutorService executor;
 
-		int totalTrained = 0;
+		FileTrie(String trainingFile, ExecutorService executor)
+		{
+			this.trainingFile = trainingFile;
+			this.executor = executor;
+		}
 
-		LOGGER.config("Unmarshalling training sentences...");
-		for (int i = 0; i < trainingDataFiles.length; i++)
+		@Override
+		public PartialTrie call() throws JAXBException, IOException, InterruptedException,
+				ExecutionException
 		{
+			/* Partial tries not merged yet, in order */
+			List<Future<PartialTrie>> pending = new ArrayList<Future<PartialTrie>>();
+			int count = 0;
+			try (SentenceReader reader = new SentenceReader(new File(trainingFile)))
+			{
+				List<Sentence> chunk = new ArrayList<Sentence>(TRAINING_CHUNK);
+				Sentence sentence;
+				while ((sentence = reader.next()) != null)
+				{
+					chunk.add(sentence);
+					count++;
+					if (chunk.size() == TRAINING_CHUNK)
+					{
+						pending.add(executor.submit(new PartialTrie(chunk)));
+						chunk = new ArrayList<Sentence>(TRAINING_CHUNK);
+						mergeChunks(executor, pending, false);
+					}
+				}
+				if (chunk.isEmpty() == false || pending.isEmpty())
+				{
+					pending.add(executor.submit(new PartialTrie(chunk)));
+				}
+			}
+			LOGGER.config(String.format("Read %d sentences from file %s.", count, trainingFile));
 
-			File xml = new File(trainingDataFiles[i]);
-			Sentences sentSet = (Sentences) unmarshaller.unmarshal(xml);
-			sentences.addSentence(sentSet.getSentence());
+			mergeChunks(executor, pending, true);
+			return pending.get(0).get();
+		}
+	}
+
+	/* Trie of one chunk of training sentences, with the names of their data models */
+	private static final class PartialTrie implements Callable<PartialTrie>
+	{
+		private final List<Sentence> sentences;
+		final Trie trie = new Trie();
+		final Set<String> names = new HashSet<String>();
+
+		PartialTrie(List<Sentence> sentences)
+		{
+			this.sentences = sentences;
+		}
+
+		@Override
+		public PartialTrie call()
+		{
+			for (Sentence sentence : sentences)
+			{
+				trie.insert(sentence);
+				LemmaDictionary.collectNames(sentence.getDataModel(), names);
+			}
+			return this;
+		}
+	}
 
-			LOGGER.config(String.format("Reading %d sentences from file %s...", sentSet
-					.getSentence().size(), trainingDataFiles[i]));
-			totalTrained += sentSet.getSentence().size();
+	/* Merge of two neighbouring partial tries, in place of the earlier one */
+	private static final class MergedTrie implements Callable<PartialTrie>
+	{
+		private final PartialTrie earlier;
+		private final PartialTrie later;
+
+		MergedTrie(PartialTrie earlier, PartialTrie later)
+		{
+			this.earlier = earlier;
+			this.later = later;
 		}
 
-		LOGGER.config(String.format("Read %d sentences.", totalTrained));
-		return sentences;
+		@Override
+		public PartialTrie call()
+		{
+			earlier.trie.merge(later.trie);
+			earlier.names.addAll(later.names);
+			return earlier;
+		}
 	}
 }
@@ -1,188 +1,280 @@
 package erTagger;
 
+import java.io.BufferedWriter;
 import java.io.File;
-import java.util.ArrayList;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
-import javax.xml.transform.OutputKeys;
-import javax.xml.transform.Transformer;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
 import javax.xml.transform.TransformerException;
-import javax.xml.transform.TransformerFactory;
-import javax.xml.transform.dom.DOMSource;
-import javax.xml.transform.stream.StreamResult;
 
 import nlp.objects.Attribute;
 import nlp.objects.Entity;
 import nlp.objects.Model;
 import nlp.objects.RelationEntity;
 import nlp.objects.Relationship;
+import util.metrics.Histogram;
+import util.metrics.Metrics;
+
+/**
+ * Writes the diagram of a model as it is read by the plugin.
+ *
+ * Elements are streamed to the output as they are visited, no document is
+ * built. The output is the same XML as that of the DOM Transformer used
+ * before, with two spaces of indentation and attributes sorted by name.
+ * Attribute values are escaped by the stream writer, so characters the
+ * Transformer wrote as character references may be written as they are, and
+ * the other way round, depending on the JDK. A tab or line break within a
+ * value is written as it is and read back as a space, and control characters
+ * cannot be written at all. Names made from the words of a sentence contain
+ * neither.
+ */
+public class ErdBuilder {
 
-import org.w3c.dom.Document;
-import org.w3c.dom.Element;
+	/* Time to build and write the diagram of a model */
+	private static final Histogram WRITE = Metrics.getInstance().histogram("erd.write");
 
-public class ErdBuilder {
+	private static final String DECLARATION = "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"no\"?>";
+	private static final String INDENT = "  ";
 
-	private DocumentBuilderFactory dbf;
-	private DocumentBuilder db;
-	private File outputFile;
-	private Document doc;
+	/* Only used to create writers */
+	private static final XMLOutputFactory OUTPUT_FACTORY = XMLOutputFactory.newInstance();
 
-	public ErdBuilder(File file) throws ParserConfigurationException {
+	private final File file;
+	private final OutputStream out;
+	private XMLStreamWriter writer;
+	private int depth;
 
-		dbf = DocumentBuilderFactory.newInstance();
-		db = dbf.newDocumentBuilder();
-		outputFile = file;
-		doc = db.newDocument();
+	public ErdBuilder(File file) throws ParserConfigurationException {
+		this.file = file;
+		this.out = null;
+	}
 
+	/**
+	 * Writes to the stream, which is left open.
+	 */
+	public ErdBuilder(OutputStream out) throws ParserConfigurationException {
+		this.file = null;
+		this.out = out;
 	}
 
 	/*Basics*/
 	public void parse(Model model) throws TransformerException {
+		long start = System.nanoTime();
+
+		try {
+			if (file != null) {
+				try (OutputStream fileOut = new FileOutputStream(file)) {
+					write(model, fileOut);
+				}
+			} else {
+				write(model, out);
+			}
+		} catch (IOException | XMLStreamException e) {
+			throw new TransformerException(e);
+		}
+		WRITE.recordSince(start);
+	}
 
-		Element diagram = doc.createElement("diagram");
-
-		diagram.setAttribute("container", "");
-		diagram.setAttribute("lastSavePath", "");
-		diagram.setAttribute("name", "Unnammed");
-		diagram.setAttribute("sqlPre", "");
-
-		Element elements = doc.createElement("elements");
-
-		parseEntities(model.getEntities(), elements);
-		parseRelationships(model.getRelationships(), elements);
-		parseRelationEntities(model, elements);
-
-		diagram.appendChild(elements);
-		doc.appendChild(diagram);
-
-		finalizeXml();
+	private void write(Model model, OutputStream stream) throws IOException,
+			XMLStreamException {
+		Writer text = new BufferedWriter(new OutputStreamWriter(stream, StandardCharsets.UTF_8));
+		text.write(DECLARATION);
+		writer = OUTPUT_FACTORY.createXMLStreamWriter(text);
+		depth = 0;
+		writer.writeCharacters(System.lineSeparator());
+
+		writer.writeStartElement("diagram");
+		attribute("container", "");
+		attribute("lastSavePath", "");
+		attribute("name", "Unnammed");
+		attribute("sqlPre", "");
+
+		startElement("elements");
+
+		parseEntities(model.getEntities());
+		parseRelationships(model.getRelationships());
+		parseRelationEntities(model);
+
+		endElement("elements");
+		endElement("diagram");
+		writer.writeCharacters(System.lineSeparator());
+
+		writer.close();
+		writer = null;
+		/* Only flushed, the stream of the caller stays open */
+		text.flush();
 	}
 
 	/*Entities*/
-	private void parseEntities(List<Entity> entities, Element appendTo) {
+	private void parseEntities(List<Entity> entities) throws XMLStreamException {
 		for (Entity entity : entities) {
-			parseEntity(entity, appendTo);
+			parseEntity(entity);
 		}
 	}
 
-	private void parseEntity(Entity e, Element appendTo) {
-		Element entity = doc.createElement("entity");
-		appendTo.appendChild(entity);
+	private void parseEntity(Entity e) throws XMLStreamException {
+		startElement("entity");
+
+		attribute("gen_position", "");
+		attribute("id", String.valueOf(e.getId()));
+		attribute("name", e.getLemmName());
+		attribute("pname", e.getLemmName());
+		attribute("sname", e.getLemmName());
+		attribute("sql_sequenz_name", "");
 
-		entity.setAttribute("gen_position", "");
-		entity.setAttribute("id", String.valueOf(e.getId()));
-		entity.setAttribute("name", e.getLemmName());
-		entity.setAttribute("pname", e.getLemmName());
-		entity.setAttribute("sname", e.getLemmName());
-		entity.setAttribute("sql_sequenz_name", "");
+		addPositionElement();
 
-		addPositionElement(entity);
+		parseAttributes(e.getAttributes());
 
-		parseAttributes(e.getAttributes(), entity);
+		endElement("entity");
 	}
 
-	private void parseAttributes(List<Attribute> attributes, Element appendTo) {
+	private void parseAttributes(List<Attribute> attributes) throws XMLStreamException {
 		for (Attribute attribute : attributes) {
-			parseAttribute(attribute, appendTo);
+			parseAttribute(attribute);
 		}
 	}
 
 
-	private void parseAttribute(Attribute attrb, Element appendTo) {
-		Element attribute = doc.createElement("attribute");
-		appendTo.appendChild(attribute);
+	private void parseAttribute(Attribute attrb) throws XMLStreamException {
+		startElement("attribute");
 
-		attribute.setAttribute("name", attrb.getName());
-		attribute.setAttribute("unique", "false");
-		attribute.setAttribute("type", "VARCHAR");
-		attribute.setAttribute("primarykey", "false");
-		attribute.setAttribute("notnull", "false");
-		attribute.setAttribute("length", "0");
-		attribute.setAttribute("genType", "None");
-		attribute.setAttribute("foreignkey", "false");
-		attribute.setAttribute("fkeytbl", "");
+		attribute("fkeytbl", "");
+		attribute("foreignkey", "false");
+		attribute("genType", "None");
+		attribute("length", "0");
+		attribute("name", attrb.getName());
+		attribute("notnull", "false");
+		attribute("primarykey", "false");
+		attribute("type", "VARCHAR");
+		attribute("unique", "false");
 
-		addPositionElement(attribute);
+		addPositionElement();
+
+		endElement("attribute");
 	}
 
 	/*Relations*/
-	private void parseRelationships(List<Relationship> relations,
-			Element appendTo) {
+	private void parseRelationships(List<Relationship> relations)
+			throws XMLStreamException {
 
 		for (Relationship relationship : relations) {
-			parseRelationship(relationship, appendTo);
+			parseRelationship(relationship);
 		}
 	}
-	private void parseRelationship(Relationship r, Element appendTo) {
-		Element relationship = doc.createElement("relation");
-		appendTo.appendChild(relationship);
+	private void parseRelationship(Relationship r) throws XMLStreamException {
+		startElement("relation");
+
+		attribute("gen_position", "");
+		attribute("id", String.valueOf(r.getId()));
+		attribute("makeTable", "true");
+		attribute("name", r.getLemmName());
+		attribute("pname", r.getLemmName());
+		attribute("sname", r.getLemmName());
+		attribute("sql_sequenz_name", "");
 
-		relationship.setAttribute("gen_position", "");
-		relationship.setAttribute("id", String.valueOf(r.getId()));
-		relationship.setAttribute("name", r.getLemmName());
-		relationship.setAttribute("pname", r.getLemmName());
-		relationship.setAttribute("sname", r.getLemmName());
-		relationship.setAttribute("sql_sequenz_name", "");
-		relationship.setAttribute("makeTable", "true");
+		addPositionElement();
 
-		addPositionElement(relationship);
+		endElement("relation");
 	}
 
 	/*Connections*/
-	private void parseRelationEntities(Model model, Element appendTo) {
-		Element connectionsElement = doc.createElement("connections");
-		appendTo.appendChild(connectionsElement);	
-		
-		List<String> entityNameList = new ArrayList<String>(model.getEntities()
-				.size());
-		for (Entity entity : model.getEntities()) {
-			entityNameList.add(entity.getLemmName());
+	private void parseRelationEntities(Model model) throws XMLStreamException {
+		/* Position of the first entity of every name, counted from 1 */
+		Map<String, Integer> entityPositions = new HashMap<String, Integer>();
+		List<Entity> entities = model.getEntities();
+		for (int i = 0; i < entities.size(); i++) {
+			if (entityPositions.containsKey(entities.get(i).getLemmName()) == false) {
+				entityPositions.put(entities.get(i).getLemmName(), i + 1);
+			}
+		}
+
+		boolean empty = true;
+		for (Relationship relationship : model.getRelationships()) {
+			empty = empty && relationship.getConnects().isEmpty();
+		}
+		if (empty) {
+			emptyElement("connections");
+			return;
 		}
 
+		startElement("connections");
 		for (Relationship relationship : model.getRelationships()) {
 			for (RelationEntity relationEntity : relationship.getConnects()) {
-				parseRelationEntity(relationEntity , relationship.getId(),
-						entityNameList.indexOf(relationEntity .getLemmName()) +  1, connectionsElement);
+				/* Connections to unknown entities point to 0 */
+				Integer to = entityPositions.get(relationEntity.getLemmName());
+				parseRelationEntity(relationEntity, relationship.getId(),
+						to != null ? to : 0);
 			}
 		}
+		endElement("connections");
 	}
 	private void parseRelationEntity(RelationEntity re, Integer from,
-			Integer to, Element appendTo) {
-		Element connection = doc.createElement("connection");
-		appendTo.appendChild(connection);
-
-		connection.setAttribute("from", from.toString());
-		connection.setAttribute("to", to.toString());
-		connection.setAttribute("multiplicity", "0");
-		connection.setAttribute("cascades", "");
+			Integer to) throws XMLStreamException {
+		emptyElement("connection");
 
+		attribute("cascades", "");
+		attribute("from", from.toString());
+		attribute("multiplicity", "0");
+		attribute("to", to.toString());
 	}
 
 	/*Position Element*/
-	private void addPositionElement(Element appendTo) {
-		Element positionElement = doc.createElement("position");
-		appendTo.appendChild(positionElement);
-
-		positionElement.setAttribute("y", "0");
-		positionElement.setAttribute("x", "0");
-		positionElement.setAttribute("w", "-1");
-		positionElement.setAttribute("h", "-1");
-
-	}
-	
-	/*Finalizing*/
-	private void finalizeXml() throws TransformerException {
-		/* Saving the XML */
-		TransformerFactory transformerFactory = TransformerFactory
-				.newInstance();
-		transformerFactory.setAttribute("indent-number", new Integer(2));
-		Transformer transformer = transformerFactory.newTransformer();
-		transformer.setOutputProperty(OutputKeys.INDENT, "yes");
-		DOMSource source = new DOMSource(doc);
-		StreamResult result = new StreamResult(outputFile);
-		transformer.transform(source, result);
-	}
-}
\ No newline at end of file
+	private void addPositionElement() throws XMLStreamException {
+		emptyElement("position");
+
+		attribute("h", "-1");
+		attribute("w", "-1");
+		attribute("x", "0");
+		attribute("y", "0");
+	}
+
+	/*Writing*/
+	private void indent() throws XMLStreamException {
+		StringBuilder indent = new StringBuilder(System.lineSeparator());
+		for (int i = 0; i < depth; i++) {
+			indent.append(INDENT);
+		}
+		writer.writeCharacters(indent.toString());
+	}
+
+	/* Child of the current element. Elements with children only. */
+	private void startElement(String name) throws XMLStreamException {
+		depth++;
+		indent();
+		writer.writeStartElement(name);
+	}
+
+	private void endElement(String name) throws XMLStreamException {
+		indent();
+		writer.writeEndElement();
+		depth--;
+	}
+
+	/* Child of the current element that has attributes only */
+	private void emptyElement(String name) throws XMLStreamException {
+		depth++;
+		indent();
+		writer.writeEmptyElement(name);
+		depth--;
+	}
+
+	/* Attributes are written in name order, as the DOM sorted them */
+	private void attribute(String name, String value) throws XMLStreamException {
+		if (value == null) {
+			value = "";
+		}
+		writer.writeAttribute(name, value);
+	}
+}
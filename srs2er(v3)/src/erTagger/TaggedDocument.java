@@ -0,0 +1,63 @@
+package erTagger;
+
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Result of tagging one document with ERTagger.tagFiles. Either the sentences
+ * of the document in their original order, or the reason it failed.
+ */
+public class TaggedDocument
+{
+	private final Path path;
+	private final List<TaggedSentence> sentences;
+	private final Exception failure;
+
+	TaggedDocument(Path path, List<TaggedSentence> sentences)
+	{
+		this.path = path;
+		this.sentences = Collections.unmodifiableList(sentences);
+		this.failure = null;
+	}
+
+	TaggedDocument(Path path, Exception failure)
+	{
+		this.path = path;
+		this.sentences = Collections.emptyList();
+		this.failure = failure;
+	}
+
+	public Path getPath()
+	{
+		return path;
+	}
+
+	public List<TaggedSentence> getSentences()
+	{
+		return sentences;
+	}
+
+	public boolean isFailed()
+	{
+		return failure != null;
+	}
+
+	/**
+	 * @return why the document could not be tagged, or null
+	 */
+	public Exception getFailure()
+	{
+		return failure;
+	}
+
+	@Override
+	public String toString()
+	{
+		if (failure != null)
+		{
+			return String.format("%s: failed, %s", path, failure);
+		}
+		return String.format("%s: %d sentences", path, sentences.size());
+	}
+}
@@ -0,0 +1,49 @@
+package erTagger;
+
+import java.util.List;
+
+import trie.serial.Match;
+
+/**
+ * A sentence of a tagged document and the branches it matched.
+ */
+public class TaggedSentence
+{
+	private final int paragraph;
+	private final String text;
+	private final List<Match> matches;
+
+	public TaggedSentence(int paragraph, String text, List<Match> matches)
+	{
+		this.paragraph = paragraph;
+		this.text = text;
+		this.matches = matches;
+	}
+
+	/**
+	 * @return index of the paragraph (line) the sentence is in, from 0
+	 */
+	public int getParagraph()
+	{
+		return paragraph;
+	}
+
+	public String getText()
+	{
+		return text;
+	}
+
+	/**
+	 * @return matches below the cost threshold, cheapest first
+	 */
+	public List<Match> getMatches()
+	{
+		return matches;
+	}
+
+	@Override
+	public String toString()
+	{
+		return String.format("%d: %s %s", paragraph, text, matches);
+	}
+}
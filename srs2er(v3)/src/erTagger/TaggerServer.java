@@ -0,0 +1,373 @@
+package erTagger;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.logging.Level;
+
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.JAXBElement;
+import javax.xml.bind.JAXBException;
+import javax.xml.bind.Marshaller;
+import javax.xml.namespace.QName;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.transform.TransformerException;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import nlp.objects.Model;
+import nlp.objects.Sentence;
+import nlp.processing.AnnotationBatcher;
+import nlp.processing.StanfordProcessor;
+import util.logging.LoggerSetup;
+import util.metrics.Histogram;
+import util.metrics.Metrics;
+
+/**
+ * HTTP server that keeps the trained trie and the pipelines loaded and tags
+ * the text posted to it.
+ *
+ * POST /tag/paragraph tags the body as one paragraph, POST /tag/document
+ * tags every line of the body as a paragraph. Both answer with the data
+ * model as XML, or with the diagram of ErdBuilder if format=erd is given.
+ * GET /ready answers 200 once the model is loaded or trained, 503 before.
+ * GET /metrics answers with a snapshot of the Metrics as JSON, or as CSV if
+ * format=csv is given.
+ *
+ * Requests are handled on virtual threads if the runtime has them. The
+ * paragraphs of requests that come in at about the same time are annotated
+ * together, see AnnotationBatcher. The paragraphs of a document are looked up
+ * on the common pool and their models merged, see
+ * ERTagger.acquireDocumentModel.
+ */
+public class TaggerServer
+{
+	private static final int DEFAULT_PORT = 8080;
+
+	/* Time a request waits for others to be annotated with it */
+	private static final long BATCH_WINDOW_MILLIS = 5;
+	private static final int MAX_BATCH_PARAGRAPHS = 32;
+
+	/* Request threads when there are no virtual threads */
+	private static final int FALLBACK_THREADS = 4 * Runtime.getRuntime().availableProcessors();
+
+	private static JAXBContext modelContext;
+
+	/* Time from reading the request to writing the answer */
+	private static final Histogram PARAGRAPH_REQUESTS = Metrics.getInstance().histogram(
+			"server.paragraph");
+	private static final Histogram DOCUMENT_REQUESTS = Metrics.getInstance().histogram(
+			"server.document");
+
+	private final HttpServer server;
+	private final ExecutorService executor;
+	private final AnnotationBatcher batcher = new AnnotationBatcher(BATCH_WINDOW_MILLIS,
+			MAX_BATCH_PARAGRAPHS);
+
+	/* Set once loading has finished, or failed */
+	private volatile ERTagger tagger;
+	private volatile Exception loadFailure;
+
+	public TaggerServer(int port) throws IOException
+	{
+		server = HttpServer.create(new InetSocketAddress(port), 0);
+		executor = newRequestExecutor();
+		server.setExecutor(executor);
+
+		server.createContext("/ready", new HttpHandler()
+		{
+			@Override
+			public void handle(HttpExchange exchange) throws IOException
+			{
+				handleReady(exchange);
+			}
+		});
+		server.createContext("/metrics", new HttpHandler()
+		{
+			@Override
+			public void handle(HttpExchange exchange) throws IOException
+			{
+				handleMetrics(exchange);
+			}
+		});
+		server.createContext("/tag/paragraph", new HttpHandler()
+		{
+			@Override
+			public void handle(HttpExchange exchange) throws IOException
+			{
+				handleTag(exchange, false);
+			}
+		});
+		server.createContext("/tag/document", new HttpHandler()
+		{
+			@Override
+			public void handle(HttpExchange exchange) throws IOException
+			{
+				handleTag(exchange, true);
+			}
+		});
+	}
+
+	/*
+	 * One virtual thread per request where the runtime has them. Looked up by
+	 * reflection, so that the code still compiles and runs on Java 8.
+	 */
+	private static ExecutorService newRequestExecutor()
+	{
+		try
+		{
+			return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor")
+					.invoke(null);
+		}
+		catch (ReflectiveOperationException roe)
+		{
+			ERTagger.LOGGER.info(String.format(
+					"No virtual threads, handling requests on %d threads.", FALLBACK_THREADS));
+			return Executors.newFixedThreadPool(FALLBACK_THREADS);
+		}
+	}
+
+	/**
+	 * Starts to answer requests, and loads the model in the background. Tag
+	 * requests are refused until the model is ready.
+	 */
+	public void start()
+	{
+		server.start();
+		ERTagger.LOGGER.info("Listening on port " + server.getAddress().getPort());
+
+		Thread loader = new Thread(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				try
+				{
+					ERTagger loaded = new ERTagger();
+					/* Load the pipelines before the first request needs them */
+					StanfordProcessor.getInstance();
+					tagger = loaded;
+					ERTagger.LOGGER.info("Model ready.");
+				}
+				catch (Exception e)
+				{
+					loadFailure = e;
+					ERTagger.LOGGER.log(Level.SEVERE, "Failed to load the model.", e);
+				}
+			}
+		}, "tagger-loader");
+		loader.start();
+	}
+
+	public void stop()
+	{
+		server.stop(0);
+		executor.shutdown();
+	}
+
+	/**
+	 * @return true once the model is loaded or trained
+	 */
+	public boolean isReady()
+	{
+		return tagger != null;
+	}
+
+	private void handleReady(HttpExchange exchange) throws IOException
+	{
+		if (tagger != null)
+		{
+			respond(exchange, 200, "text/plain", "ready\n");
+		}
+		else if (loadFailure != null)
+		{
+			/* The cause was logged when loading failed */
+			respond(exchange, 500, "text/plain", "failed\n");
+		}
+		else
+		{
+			respond(exchange, 503, "text/plain", "loading\n");
+		}
+	}
+
+	private void handleMetrics(HttpExchange exchange) throws IOException
+	{
+		if ("csv".equals(parameter(exchange, "format")))
+		{
+			respond(exchange, 200, "text/csv", Metrics.getInstance().toCsv());
+		}
+		else
+		{
+			respond(exchange, 200, "application/json", Metrics.getInstance().toJson());
+		}
+	}
+
+	private void handleTag(HttpExchange exchange, boolean document) throws IOException
+	{
+		long start = System.nanoTime();
+		try
+		{
+			if ("POST".equals(exchange.getRequestMethod()) == false)
+			{
+				exchange.getResponseHeaders().set("Allow", "POST");
+				respond(exchange, 405, "text/plain", "POST the text to tag\n");
+				return;
+			}
+			ERTagger tool = tagger;
+			if (tool == null)
+			{
+				respond(exchange, 503, "text/plain", "loading\n");
+				return;
+			}
+
+			String text = read(exchange.getRequestBody());
+			List<String> paragraphs = new ArrayList<String>();
+			if (document)
+			{
+				for (String line : text.split("\r?\n"))
+				{
+					if (line.trim().isEmpty() == false)
+					{
+						paragraphs.add(line);
+					}
+				}
+			}
+			else if (text.trim().isEmpty() == false)
+			{
+				paragraphs.add(text);
+			}
+			if (paragraphs.isEmpty())
+			{
+				respond(exchange, 400, "text/plain", "Nothing to tag\n");
+				return;
+			}
+
+			List<List<Sentence>> annotated = batcher.annotate(paragraphs);
+			Model model;
+			if (document)
+			{
+				model = tool.acquireDocumentModel(annotated, ForkJoinPool.commonPool());
+			}
+			else
+			{
+				model = tool.acquireDataModel(annotated.get(0));
+			}
+
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			if ("erd".equals(parameter(exchange, "format")))
+			{
+				new ErdBuilder(out).parse(model);
+			}
+			else
+			{
+				marshal(model, out);
+			}
+			respond(exchange, 200, "application/xml", out.toByteArray());
+			(document ? DOCUMENT_REQUESTS : PARAGRAPH_REQUESTS).recordSince(start);
+		}
+		catch (ParserConfigurationException | TransformerException | JAXBException
+				| RuntimeException e)
+		{
+			ERTagger.LOGGER.log(Level.WARNING, "Failed to tag request.", e);
+			respond(exchange, 500, "text/plain", "Failed to tag the text\n");
+		}
+		catch (InterruptedException ie)
+		{
+			Thread.currentThread().interrupt();
+			respond(exchange, 503, "text/plain", "interrupted\n");
+		}
+	}
+
+	private static synchronized JAXBContext getModelContext() throws JAXBException
+	{
+		if (modelContext == null)
+		{
+			modelContext = JAXBContext.newInstance(Model.class);
+		}
+		return modelContext;
+	}
+
+	private static void marshal(Model model, OutputStream out) throws JAXBException
+	{
+		Marshaller marshaller = getModelContext().createMarshaller();
+		marshaller.setProperty(Marshaller.JAXB_FORMATTED_OUTPUT, Boolean.TRUE);
+		marshaller.marshal(new JAXBElement<Model>(new QName("Model"), Model.class, model), out);
+	}
+
+	/* Value of a query parameter, or null */
+	private static String parameter(HttpExchange exchange, String name)
+	{
+		String query = exchange.getRequestURI().getQuery();
+		if (query == null)
+		{
+			return null;
+		}
+		for (String pair : query.split("&"))
+		{
+			int equals = pair.indexOf('=');
+			if (equals > 0 && pair.substring(0, equals).equals(name))
+			{
+				return pair.substring(equals + 1);
+			}
+		}
+		return null;
+	}
+
+	private static String read(InputStream in) throws IOException
+	{
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		byte[] buffer = new byte[8192];
+		int count;
+		while ((count = in.read(buffer)) > 0)
+		{
+			bytes.write(buffer, 0, count);
+		}
+		return new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+	}
+
+	private static void respond(HttpExchange exchange, int status, String contentType,
+			String body) throws IOException
+	{
+		respond(exchange, status, contentType + "; charset=utf-8",
+				body.getBytes(StandardCharsets.UTF_8));
+	}
+
+	private static void respond(HttpExchange exchange, int status, String contentType,
+			byte[] body) throws IOException
+	{
+		exchange.getResponseHeaders().set("Content-Type", contentType);
+		exchange.sendResponseHeaders(status, body.length);
+		try (OutputStream out = exchange.getResponseBody())
+		{
+			out.write(body);
+		}
+	}
+
+	public static void main(String[] args) throws IOException
+	{
+		LoggerSetup.setup(ERTagger.LOGGER);
+		ERTagger.LOGGER.setLevel(Level.INFO);
+
+		int port = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PORT;
+		final TaggerServer taggerServer = new TaggerServer(port);
+		Runtime.getRuntime().addShutdownHook(new Thread(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				taggerServer.stop();
+			}
+		}));
+		taggerServer.start();
+	}
+}
@@ -15,9 +15,16 @@ public class Attribute extends Type
 		return super.toAbstractString();
 	}
 
+	public Attribute copy()
+	{
+		Attribute copy = new Attribute();
+		copyTo(copy);
+		return copy;
+	}
+
 	public boolean equals(Attribute attribute)
 	{
-		if (this.lemmName.compareTo(attribute.lemmName) == 0)
+		if (this.getLemmName().compareTo(attribute.getLemmName()) == 0)
 		{
 			return true;
 		}
@@ -29,6 +29,16 @@ public class Entity extends Type {
 		Superclass = superclass;
 	}
 
+	public Entity copy() {
+		Entity copy = new Entity();
+		copyTo(copy);
+		for (Attribute attribute : Attributes) {
+			copy.Attributes.add(attribute.copy());
+		}
+		copy.Superclass = Superclass;
+		return copy;
+	}
+
 	@Override
 	public String toAbstractString() {
 		StringBuilder sb = new StringBuilder();
@@ -43,7 +53,7 @@ public class Entity extends Type {
 	}
 
 	public boolean equals(Entity entity) {
-		if (this.lemmName.equals(entity.lemmName)) {
+		if (this.getLemmName().equals(entity.getLemmName())) {
 			if (this.Attributes.size() == entity.Attributes.size()) {
 				//FIXME Not considered the fact that same entities can be in different order.
 				for (int i = 0; i < this.Attributes.size(); i++) {
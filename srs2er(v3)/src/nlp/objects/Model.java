@@ -30,6 +30,21 @@ public class Model {
 		Relationships = relationships;
 	}
 
+	/**
+	 * @return a copy of the model with copies of its entities and
+	 *         relationships, that can be changed without changing this one
+	 */
+	public Model copy() {
+		Model copy = new Model();
+		for (Entity entity : Entities) {
+			copy.Entities.add(entity.copy());
+		}
+		for (Relationship relationship : Relationships) {
+			copy.Relationships.add(relationship.copy());
+		}
+		return copy;
+	}
+
 	@Override
 	public String toString() {
 		StringBuilder sb = new StringBuilder();
@@ -0,0 +1,121 @@
+package nlp.objects;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Level;
+
+import erTagger.ERTagger;
+
+/**
+ * Merges the entities and relationships of several models into one.
+ *
+ * Entities are the same if they have the same lemmatized name, their
+ * attributes are merged, attributes with the same lemmatized name only once.
+ * Relationships are the same if they have the same lemmatized name and
+ * connect the same entities, in any order. Only the first of them is kept.
+ *
+ * Both are looked up by key, so merging takes time linear in the number of
+ * entities and relationships. The merged model lists them in the order they
+ * were first added, so the same models merge to the same model with the same
+ * ids. Neither the added models nor the merged models are changed by later
+ * merging, the merged model holds copies.
+ *
+ * Adding a merged model is the same as adding the models it was merged from,
+ * apart from the ids. So the parts of a document can be merged on their own,
+ * e.g. on different threads, and the merged parts then added in document
+ * order, grouped any way. A merger is used by one thread at a time.
+ */
+public class ModelMerger {
+
+	/* Separates the parts of a key, not part of any name */
+	private static final char SEPARATOR = '\0';
+
+	private final Map<String, Entity> entities = new LinkedHashMap<String, Entity>();
+	/* Names of the attributes of every entity, by key of the entity */
+	private final Map<String, Set<String>> attributeNames = new HashMap<String, Set<String>>();
+	private final Map<String, Relationship> relationships = new LinkedHashMap<String, Relationship>();
+
+	public void add(Model model) {
+		for (Entity entity : model.getEntities()) {
+			add(entity);
+		}
+		for (Relationship relationship : model.getRelationships()) {
+			add(relationship);
+		}
+	}
+
+	public void add(Entity entity) {
+		String key = entity.getLemmName();
+		Entity merged = entities.get(key);
+		Set<String> names = attributeNames.get(key);
+		if (merged == null) {
+			merged = entity.copy();
+			merged.setAttributes(new ArrayList<Attribute>());
+			names = new HashSet<String>();
+			entities.put(key, merged);
+			attributeNames.put(key, names);
+		}
+
+		for (Attribute attribute : entity.getAttributes()) {
+			if (names.add(attribute.getLemmName())) {
+				merged.getAttributes().add(attribute.copy());
+			}
+		}
+	}
+
+	public void add(Relationship relationship) {
+		String key = key(relationship);
+		if (relationships.containsKey(key)) {
+			if (ERTagger.LOGGER.isLoggable(Level.FINE)) {
+				ERTagger.LOGGER.fine("Duplicate Relationship removed.");
+			}
+			return;
+		}
+		relationships.put(key, relationship.copy());
+	}
+
+	/* Name of the relationship and the sorted names of the entities it connects */
+	private static String key(Relationship relationship) {
+		List<String> connects = new ArrayList<String>(relationship.getConnects().size());
+		for (RelationEntity entity : relationship.getConnects()) {
+			connects.add(entity.getLemmName());
+		}
+		Collections.sort(connects);
+
+		StringBuilder key = new StringBuilder();
+		key.append(relationship.getLemmName());
+		for (String connect : connects) {
+			key.append(SEPARATOR);
+			key.append(connect);
+		}
+		return key.toString();
+	}
+
+	/**
+	 * @return model of the entities and relationships merged so far, with ids
+	 *         counted from 1, first the entities, then the relationships
+	 */
+	public Model toModel() {
+		Model model = new Model();
+		int idIndex = 1; // common id index for entities and relationships
+		for (Entity entity : entities.values()) {
+			Entity copy = entity.copy();
+			copy.setId(idIndex);
+			idIndex++;
+			model.getEntities().add(copy);
+		}
+		for (Relationship relationship : relationships.values()) {
+			Relationship copy = relationship.copy();
+			copy.setId(idIndex);
+			idIndex++;
+			model.getRelationships().add(copy);
+		}
+		return model;
+	}
+}
@@ -3,11 +3,9 @@ package nlp.objects;
 import java.io.File;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.HashSet;
 import java.util.Iterator;
-import java.util.LinkedList;
 import java.util.List;
-import java.util.Set;
+import java.util.logging.Level;
 
 import javax.xml.parsers.ParserConfigurationException;
 import javax.xml.transform.TransformerException;
@@ -15,12 +13,19 @@ import javax.xml.transform.TransformerException;
 import trie.LeafNode;
 import trie.Lookup;
 import trie.Trie;
+import trie.serial.Match;
+import trie.serial.SerialTrie;
 import util.Tuple;
+import util.metrics.Histogram;
+import util.metrics.Metrics;
 import erTagger.ERTagger;
 import erTagger.ErdBuilder;
 
 public class Paragraph {
 
+	/* Time to merge the sentence models into the paragraph model */
+	private static final Histogram MERGE = Metrics.getInstance().histogram("model.merge");
+
 	private Sentences Paragraph;
 	private Model ParagraphDataModel;
 
@@ -36,6 +41,17 @@ public class Paragraph {
 		load(paragraph);
 	}
 
+	/**
+	 * Paragraph of sentences that are already POS tagged, e.g. by
+	 * StanfordProcessor.AnnotateParagraph.
+	 * 
+	 * @param sentences
+	 */
+	public Paragraph(List<Sentence> sentences) {
+		this.Paragraph = new Sentences();
+		this.Paragraph.setSentence(new ArrayList<Sentence>(sentences));
+	}
+
 	private void load(String paragraphText) {
 		ArrayList<Sentence> sentences = new ArrayList<Sentence>();
 		for (String sentenceValue : Arrays.asList(paragraphText.split("\\."))) {
@@ -63,69 +79,45 @@ public class Paragraph {
 		createDataModel();
 	}
 
-	private void createDataModel() {
-		List<Entity> entities = new LinkedList<Entity>();
-		List<Relationship> relationships = new LinkedList<Relationship>();
-
+	/**
+	 * Acquires the data model of every sentence from the closest branch of
+	 * the serialized trie. The models of the trie are copied before they are
+	 * filled in, so that the trie can be used by other threads meanwhile.
+	 */
+	public void acquireDataModel(SerialTrie trie) {
 		for (Sentence sentence : this.Paragraph.getSentence()) {
-			entities.addAll(sentence.getDataModel().getEntities());
-			relationships.addAll(sentence.getDataModel().getRelationships());
-		}
-		this.ParagraphDataModel = new Model();
-		this.ParagraphDataModel.setEntities(entities);
-		this.ParagraphDataModel.setRelationships(relationships);
 
-		mergeDuplicateEntities();
-		mergeDuplicateRelationships();
-
-		updateIds();
-	}
-
-	private void mergeDuplicateRelationships() {
-		Set<Relationship> relationSet = new HashSet<Relationship>();
+			if (ERTagger.LOGGER.isLoggable(Level.FINE)) {
+				ERTagger.LOGGER.fine(String.format("Acquiring Data Model for: %s",
+						sentence.getValue()));
+			}
 
-		for (Relationship relationship : this.ParagraphDataModel
-				.getRelationships()) {
-			boolean result = relationSet.add(relationship);
-			if (result == false) {
-				ERTagger.LOGGER.info("Duplicate Relationship removed.");
+			List<Match> matches = trie.lookupTopK(sentence, 1,
+					SerialTrie.COST_THRESHOLD);
+			if (matches.isEmpty()) {
+				ERTagger.LOGGER.fine("No branch close enough.");
+			} else {
+				Model model = matches.get(0).getModel().copy();
+				Lookup.processDataModel(sentence, model);
+				sentence.setDataModel(model);
 			}
 		}
-		List<Relationship> newRelationList = new ArrayList<Relationship>(
-				relationSet.size());
-		newRelationList.addAll(relationSet);
-		this.ParagraphDataModel.setRelationships(newRelationList);
+		createDataModel();
 	}
 
-	private void mergeDuplicateEntities() {
-		List<Entity> entities = this.ParagraphDataModel.getEntities();
-		Integer entitiesSize = entities.size();
-
-		for (int i = 0; i < entitiesSize; i++) {
-			Entity current = entities.get(i);
-
-			for (int j = i + 1; j < entitiesSize; j++) {
-				if (current.getLemmName().compareTo(
-						entities.get(j).getLemmName()) == 0) {
-					/* Merge Entities */
-					Entity duplicateName = entities.get(j);
-					Set<Attribute> attributeSet = new HashSet<Attribute>();
-
-					attributeSet.addAll(current.getAttributes());
-					attributeSet.addAll(duplicateName.getAttributes());
-
-					List<Attribute> newAttributeList = new ArrayList<Attribute>();
-					newAttributeList.addAll(attributeSet);
-
-					current.setAttributes(newAttributeList);
+	/*
+	 * Merges the models of the sentences, entities of the same name and
+	 * duplicate relationships only once. See ModelMerger.
+	 */
+	private void createDataModel() {
+		long start = System.nanoTime();
+		ModelMerger merger = new ModelMerger();
 
-					entities.remove(j);
-					j = j - 1; // since an element from array is removed.
-					entitiesSize = entitiesSize - 1;
-				}
-			}
+		for (Sentence sentence : this.Paragraph.getSentence()) {
+			merger.add(sentence.getDataModel());
 		}
-		this.ParagraphDataModel.setEntities(entities);
+		this.ParagraphDataModel = merger.toModel();
+		MERGE.recordSince(start);
 	}
 
 	// FIXME Incomplete Code Here.
@@ -141,19 +133,6 @@ public class Paragraph {
 		return false;
 	}
 
-	private void updateIds() {
-		int idIndex = 1; // common id inedex for entities and relationships
-		for (Entity entity : this.ParagraphDataModel.getEntities()) {
-			entity.setId(idIndex);
-			idIndex++;
-		}
-		for (Relationship relationship : this.ParagraphDataModel
-				.getRelationships()) {
-			relationship.setId(idIndex);
-			idIndex++;
-		}
-	}
-
 	/**
 	 * Converts the List of sentences into a xml format which can be read by the
 	 * plugin.
@@ -3,7 +3,7 @@ package nlp.objects;
 import javax.xml.bind.annotation.XmlAttribute;
 import javax.xml.bind.annotation.XmlElement;
 
-import nlp.processing.StanfordProcessor;
+import nlp.processing.LemmaDictionary;
 
 public class RelationEntity {
 	private int Id;
@@ -53,14 +53,32 @@ public class RelationEntity {
 		Name = name;
 	}
 
+	/**
+	 * Sets the name together with an already lemmatized name. Used while
+	 * restoring exported models so that no annotation is required.
+	 */
+	public void setName(String name, String lemmName) {
+		this.Name = name;
+		this.LemmName = lemmName;
+	}
+
 	public String getLemmName() {
 		if (this.LemmName == null) {
-			this.LemmName = StanfordProcessor.getInstance().lemmatiseString(
-					this.Name);
+			this.LemmName = LemmaDictionary.getInstance().lemma(this.Name);
 		}
 		return this.LemmName;
 	}
 
+	public RelationEntity copy() {
+		RelationEntity copy = new RelationEntity();
+		copy.Id = Id;
+		copy.Cardinality = Cardinality;
+		copy.Participation = Participation;
+		copy.Name = Name;
+		copy.LemmName = LemmName;
+		return copy;
+	}
+
 	@Override
 	public String toString() {
 		return this.getLemmName();
@@ -19,6 +19,15 @@ public class Relationship extends Type {
 		Connects = connects;
 	}
 
+	public Relationship copy() {
+		Relationship copy = new Relationship();
+		copyTo(copy);
+		for (RelationEntity entity : Connects) {
+			copy.Connects.add(entity.copy());
+		}
+		return copy;
+	}
+
 	@Override
 	public String toString() {
 		
@@ -29,9 +29,19 @@ public class Sentence {
      * @param value
      */
     public Sentence(String value) {
+	this(value, StanfordProcessor.getInstance().Annotate(value));
+    }
+
+    /**
+     * Create a sentence object from tokens that are already tagged, e.g. by
+     * StanfordProcessor.AnnotateParagraph.
+     * 
+     * @param value
+     * @param tokens
+     *            Word, lemma and part of speech of every token
+     */
+    public Sentence(String value, List<Triple<String, String, String>> tokens) {
 	this.Value = value;
-	List<Triple<String, String, String>> tokens = StanfordProcessor
-		.getInstance().Annotate(value);
 
 	Integer wordIndex = 0;
 	List<Word> words = new ArrayList<Word>(tokens.size());
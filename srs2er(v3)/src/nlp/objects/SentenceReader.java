@@ -0,0 +1,114 @@
+package nlp.objects;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.JAXBException;
+import javax.xml.bind.Unmarshaller;
+import javax.xml.bind.ValidationEvent;
+import javax.xml.bind.ValidationEventHandler;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * Reads the sentences of a training file one at a time, instead of
+ * unmarshalling the whole Sentences document at once. Only the sentence being
+ * read is held in memory.
+ * 
+ * Like the Sentences document, only the Sentence elements directly below the
+ * root are read, everything else is skipped.
+ */
+public class SentenceReader implements Closeable {
+
+	private static final String SENTENCE = "Sentence";
+
+	private static JAXBContext context;
+	private static XMLInputFactory factory;
+
+	private final InputStream input;
+	private final XMLStreamReader reader;
+	private final Unmarshaller unmarshaller;
+
+	/* Element depth of the reader, the root element is at 1 */
+	private int depth;
+
+	public SentenceReader(File xml) throws JAXBException, IOException {
+		unmarshaller = getContext().createUnmarshaller();
+
+		/*
+		 * The following code overrides the default behavior of JABX which
+		 * silently ignores error. Source:
+		 * http://stackoverflow.com/questions/2633276
+		 * /jaxb-unmarshall-created-an-empty-object
+		 */
+		unmarshaller.setEventHandler(new ValidationEventHandler() {
+			@Override
+			public boolean handleEvent(ValidationEvent event) {
+				throw new RuntimeException(event.getMessage(), event.getLinkedException());
+			}
+		});
+
+		input = new FileInputStream(xml);
+		try {
+			reader = getFactory().createXMLStreamReader(input);
+		} catch (XMLStreamException xse) {
+			input.close();
+			throw new JAXBException("Cannot read " + xml, xse);
+		}
+	}
+
+	private static synchronized JAXBContext getContext() throws JAXBException {
+		if (context == null) {
+			context = JAXBContext.newInstance(Sentence.class);
+		}
+		return context;
+	}
+
+	private static synchronized XMLInputFactory getFactory() {
+		if (factory == null) {
+			factory = XMLInputFactory.newInstance();
+		}
+		return factory;
+	}
+
+	/**
+	 * @return the next sentence, or null at the end of the file
+	 */
+	public Sentence next() throws JAXBException {
+		try {
+			int event = reader.getEventType();
+			while (event != XMLStreamConstants.END_DOCUMENT) {
+				if (event == XMLStreamConstants.START_ELEMENT) {
+					if (depth == 1 && SENTENCE.equals(reader.getLocalName())) {
+						/* Leaves the reader on the event after the sentence */
+						return unmarshaller.unmarshal(reader, Sentence.class).getValue();
+					}
+					depth++;
+				} else if (event == XMLStreamConstants.END_ELEMENT) {
+					depth--;
+				}
+				event = reader.next();
+			}
+			return null;
+		} catch (XMLStreamException xse) {
+			throw new JAXBException(xse.getMessage(), xse);
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		try {
+			reader.close();
+		} catch (XMLStreamException xse) {
+			throw new IOException(xse);
+		} finally {
+			input.close();
+		}
+	}
+}
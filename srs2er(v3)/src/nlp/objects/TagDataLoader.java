@@ -1,11 +1,14 @@
 package nlp.objects;
 
-import java.io.File;
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.nio.file.Files;
-import java.util.ArrayList;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
 import java.util.Iterator;
-import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.stream.Stream;
 
 /**
  * 
@@ -71,9 +74,6 @@ public class TagDataLoader {
 
 	int value;
 	String longString;
-	int deletionCost;
-	int insertionCost;
-	List<Integer> substitutionCost;
 
 	TagType(int val) {
 	    value = val;
@@ -88,29 +88,17 @@ public class TagDataLoader {
 	    this.longString = longString;
 	}
 	
-	void setInsertionCost(int ins) {
-	    insertionCost = ins;
-	}
-	void setDeletionCost(int del) {
-	    deletionCost = del;
-	}
-	void setSubstutionCost(List<Integer> subs) {
-	    substitutionCost = subs;
-	}
-	
+	/* Costs of the loaded cost file, see costs() */
 	public int getInsertionCost() {
-	    return insertionCost;
+	    return costs().insertion[ordinal()];
 	}
 	
 	public int getDeletionCost() {
-	    return deletionCost;
+	    return costs().deletion[ordinal()];
 	}
 	
 	public int getSubstitutionCost(TagType subsWith) {
-	    if (subsWith == TagType.UNKNOWN) {
-		return 999;
-	    }
-	    return substitutionCost.get(subsWith.getValue() - 1);
+	    return costs().substitution(ordinal(), subsWith.ordinal());
 	}
 	
 	public int getValue() {
@@ -130,6 +118,40 @@ public class TagDataLoader {
     
     
     
+    /**
+     * Insertion, deletion and substitution costs of the TagTypes, flattened
+     * into arrays indexed by TagType ordinal. The arrays must not be modified.
+     */
+    public static final class CostTable {
+	public final int tagCount;
+	public final int[] insertion;
+	public final int[] deletion;
+	/* substitution[original * tagCount + target] */
+	public final int[] substitution;
+
+	private CostTable() {
+	    tagCount = TagType.values().length;
+	    insertion = new int[tagCount];
+	    deletion = new int[tagCount];
+	    substitution = new int[tagCount * tagCount];
+	    /* UNKNOWN, and tags without a row in the file */
+	    Arrays.fill(substitution, UNKNOWN_COST);
+	}
+
+	public int substitution(int original, int target) {
+	    return substitution[original * tagCount + target];
+	}
+    }
+
+    /* Cost of substituting with or for UNKNOWN */
+    private static final int UNKNOWN_COST = 999;
+
+    /* Relative to the working directory */
+    public static final Path DEFAULT_COST_FILE = Paths.get("data", "post", "cost2.csv");
+
+    /* Replaced as a whole, a lookup that read it keeps a consistent view */
+    private static volatile CostTable costs;
+    
     private static TagDataLoader instance;
     
     public static TagDataLoader getInstance() throws IOException {
@@ -143,46 +165,96 @@ public class TagDataLoader {
 	
     }
     
+    /**
+     * @return the costs last loaded, those of DEFAULT_COST_FILE if none were
+     *         loaded yet
+     */
+    public static CostTable costs() {
+	CostTable table = costs;
+	if (table == null) {
+	    synchronized (TagDataLoader.class) {
+		if (costs == null) {
+		    try {
+			costs = readCosts(DEFAULT_COST_FILE);
+		    } catch (IOException ioe) {
+			throw new UncheckedIOException(ioe);
+		    }
+		}
+		table = costs;
+	    }
+	}
+	return table;
+    }
+
     public void Load() throws IOException {
-	initTagCostMatrices();
+	Load(DEFAULT_COST_FILE);
     }
 
+    /**
+     * Loads the costs of the file in place of the current ones, e.g. to
+     * compare cost.csv, cost1.csv and cost2.csv without a restart. The
+     * lookups of SerialTrie read the costs once and pass them on, so lookups
+     * that already started finish with the costs they started with. Callers
+     * of EditDistance without a CostTable read the current costs on every
+     * call.
+     */
+    public void Load(Path costFile) throws IOException {
+	costs = readCosts(costFile);
+    }
 
-    File costMatrixFile = new File("data\\post\\cost2.csv");
+    /**
+     * Reads the costs of the file without using them, see Load to use them.
+     */
+    public static CostTable readCosts(Path costFile) throws IOException {
+	CostTable table = new CostTable();
+	try (Stream<String> lines = Files.lines(costFile)) {
+	    Iterator<String> lineIterator = lines.iterator();
+	    String firstLine = lineIterator.next();
+	    String insertion = lineIterator.next();
+	    String deletion = lineIterator.next();
 
-    private void initTagCostMatrices() throws IOException {
-	Iterator<String> lineIterator = Files.lines(costMatrixFile.toPath()).iterator();
+	    if (checkTagSequence(firstLine) == false) {
+		throw new IOException("Unexpected tags in " + costFile + ": " + firstLine);
+	    }
+	    assignCosts(table, insertion.split(","), deletion.split(","));
 
-	String firstLine = lineIterator.next();
-	String insertion = lineIterator.next();
-	String deletion = lineIterator.next();
-	
-	checkTagSequence(firstLine);
-	assignCosts(insertion.split(","), deletion.split(","));
-	
-	while (lineIterator.hasNext()) {
-	    assignCosts(lineIterator.next().split(","));
+	    while (lineIterator.hasNext()) {
+		assignCosts(table, lineIterator.next().split(","));
+	    }
+	} catch (UncheckedIOException uioe) {
+	    throw uioe.getCause();
+	} catch (NoSuchElementException | IllegalArgumentException e) {
+	    /* Missing lines, or a cost or tag that does not parse */
+	    throw new IOException("Malformed cost file " + costFile, e);
 	}
-
+	return table;
     }
-    private void assignCosts(String[] insertion, String[] deletion) {
+
+    private static void assignCosts(CostTable table, String[] insertion, String[] deletion) {
 	for (int i = 1; i < TagType.count; i++) {
-	    TagType current = TagType.values()[i];
-	    
-	    current.setInsertionCost(Integer.parseInt(insertion[i]));
-	    current.setDeletionCost(Integer.parseInt(deletion[i]));
+	    table.insertion[i] = Integer.parseInt(insertion[i]);
+	    table.deletion[i] = Integer.parseInt(deletion[i]);
 	}
     }
     
-    private void assignCosts(String[] subs) {
-	List<Integer> subsCost = new ArrayList<Integer>(subs.length);
+    private static void assignCosts(CostTable table, String[] subs) {
+	int original = TagType.valueOf(subs[0]).ordinal();
 	for (int i = 1; i <= TagType.count; i++) {
-	    subsCost.add(Integer.parseInt(subs[i]));
+	    table.substitution[original * table.tagCount + i] = Integer.parseInt(subs[i]);
 	}
-	TagType.valueOf(subs[0]).setSubstutionCost(subsCost);
     }
     
-    private boolean checkTagSequence(String firstLine) {
+    /* Columns in TagType order, as the costs are assigned by position */
+    private static boolean checkTagSequence(String firstLine) {
+	String[] tags = firstLine.split(",");
+	if (tags.length != TagType.count + 1) {
+	    return false;
+	}
+	for (int i = 1; i <= TagType.count; i++) {
+	    if (tags[i].equals(TagType.values()[i].name()) == false) {
+		return false;
+	    }
+	}
 	return true;
     }
 }
@@ -3,7 +3,7 @@ package nlp.objects;
 import javax.xml.bind.annotation.XmlAttribute;
 import javax.xml.bind.annotation.XmlElement;
 
-import nlp.processing.StanfordProcessor;
+import nlp.processing.LemmaDictionary;
 
 public class Type implements Comparable<Type> {
     String name;
@@ -45,19 +45,42 @@ public class Type implements Comparable<Type> {
 	return name;
     }
 
+    /**
+     * Sets the name. The lemmatized name is looked up when it is first needed.
+     */
     public void setName(String name) {
 	this.name = name;
-	this.lemmName = StanfordProcessor.getInstance().lemmatiseString(
-		this.name);
+	this.lemmName = null;
+    }
+
+    /**
+     * Sets the name together with an already lemmatized name. Used while
+     * restoring exported models so that no annotation is required.
+     */
+    public void setName(String name, String lemmName) {
+	this.name = name;
+	this.lemmName = lemmName;
+    }
+
+    /* Copies the fields of this type to the copy */
+    void copyTo(Type copy) {
+	copy.name = name;
+	copy.lemmName = lemmName;
+	copy.id = id;
+	copy.wordIndex = wordIndex;
+	copy.length = length;
     }
 
     public String getLemmName() {
+	if (lemmName == null && name != null) {
+	    lemmName = LemmaDictionary.getInstance().lemma(name);
+	}
 	return lemmName;
     }
 
     @Override
     public String toString() {
-	return String.format("%s WI=%d L=%d", lemmName, wordIndex, length);
+	return String.format("%s WI=%d L=%d", getLemmName(), wordIndex, length);
     }
     
     public String toAbstractString() {
@@ -67,7 +90,7 @@ public class Type implements Comparable<Type> {
     @Override
     public int compareTo(Type type) {
 	if (length == type.length) {
-	    return lemmName.compareTo(type.lemmName);
+	    return getLemmName().compareTo(type.getLemmName());
 	} else {
 	    if (this.length < type.length) {
 		return -1;
@@ -0,0 +1,154 @@
+package nlp.processing;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+import nlp.objects.Sentence;
+
+/**
+ * Collects the paragraphs of concurrent callers for a short time and
+ * annotates them with one run of the pipeline, see
+ * StanfordProcessor.AnnotateParagraphs.
+ *
+ * The first caller of a batch waits for the window to pass, or for the batch
+ * to fill up, then annotates the whole batch. The other callers wait for its
+ * result. No thread of its own is needed, and no monitor is held while
+ * waiting, so callers may be virtual threads.
+ */
+public class AnnotationBatcher {
+
+	private static final class Batch {
+		final List<String> paragraphs = new ArrayList<String>();
+		final CountDownLatch full = new CountDownLatch(1);
+		final CompletableFuture<List<List<Sentence>>> result = new CompletableFuture<List<List<Sentence>>>();
+	}
+
+	private final long windowNanos;
+	private final int maxParagraphs;
+
+	private final ReentrantLock lock = new ReentrantLock();
+	/* Batch that still takes paragraphs, guarded by lock */
+	private Batch open;
+
+	private final LongAdder batches = new LongAdder();
+	private final LongAdder requests = new LongAdder();
+	private final LongAdder paragraphs = new LongAdder();
+
+	/**
+	 * @param windowMillis
+	 *            Time the first caller of a batch waits for others. Zero
+	 *            annotates every call on its own.
+	 * @param maxParagraphs
+	 *            A batch is closed as soon as it has this many paragraphs
+	 */
+	public AnnotationBatcher(long windowMillis, int maxParagraphs) {
+		this.windowNanos = TimeUnit.MILLISECONDS.toNanos(windowMillis);
+		this.maxParagraphs = maxParagraphs;
+	}
+
+	/**
+	 * Same as StanfordProcessor.AnnotateParagraphs, but the paragraphs may be
+	 * annotated together with those of other callers.
+	 *
+	 * @return new sentence objects of every paragraph, in paragraph order
+	 */
+	public List<List<Sentence>> annotate(List<String> paragraphTexts) {
+		requests.increment();
+		if (windowNanos <= 0) {
+			batches.increment();
+			paragraphs.add(paragraphTexts.size());
+			return StanfordProcessor.getInstance().AnnotateParagraphs(paragraphTexts);
+		}
+
+		Batch batch;
+		int from;
+		boolean leader;
+		lock.lock();
+		try {
+			leader = open == null;
+			if (leader) {
+				open = new Batch();
+			}
+			batch = open;
+			from = batch.paragraphs.size();
+			batch.paragraphs.addAll(paragraphTexts);
+			if (batch.paragraphs.size() >= maxParagraphs) {
+				open = null;
+				batch.full.countDown();
+			}
+		} finally {
+			lock.unlock();
+		}
+
+		if (leader) {
+			run(batch);
+		}
+
+		try {
+			return batch.result.join().subList(from, from + paragraphTexts.size());
+		} catch (CompletionException ce) {
+			if (ce.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) ce.getCause();
+			}
+			throw ce;
+		}
+	}
+
+	private void run(Batch batch) {
+		awaitWindow(batch);
+
+		lock.lock();
+		try {
+			if (open == batch) {
+				open = null;
+			}
+		} finally {
+			lock.unlock();
+		}
+
+		batches.increment();
+		paragraphs.add(batch.paragraphs.size());
+		try {
+			batch.result.complete(StanfordProcessor.getInstance().AnnotateParagraphs(
+					batch.paragraphs));
+		} catch (RuntimeException e) {
+			batch.result.completeExceptionally(e);
+		}
+	}
+
+	/* Wait for the window or a full batch, an interrupt only ends the wait */
+	private void awaitWindow(Batch batch) {
+		try {
+			batch.full.await(windowNanos, TimeUnit.NANOSECONDS);
+		} catch (InterruptedException ie) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	public long getBatches() {
+		return batches.sum();
+	}
+
+	public long getRequests() {
+		return requests.sum();
+	}
+
+	public long getParagraphs() {
+		return paragraphs.sum();
+	}
+
+	@Override
+	public String toString() {
+		long batchCount = batches.sum();
+		return String.format(
+				"batcher: %d requests in %d batches, %.1f paragraphs per batch",
+				requests.sum(), batchCount,
+				batchCount == 0 ? 0.0 : (double) paragraphs.sum() / batchCount);
+	}
+}
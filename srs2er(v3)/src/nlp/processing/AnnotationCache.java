@@ -0,0 +1,150 @@
+package nlp.processing;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import util.metrics.Counter;
+import util.metrics.Metrics;
+
+/**
+ * Least recently used cache of pipeline results, keyed by the input text.
+ * 
+ * The cache is bounded by the total weight of its entries rather than by
+ * their number, so that a few long paragraphs cannot push out every short
+ * entity name. Values are shared between callers and must not be modified.
+ * 
+ * Safe for concurrent use. The value is computed outside of the lock, so two
+ * threads asking for the same missing text may both compute it.
+ *
+ * Hits, misses and evictions are counted in the metrics cache.<name>.hits,
+ * cache.<name>.misses and cache.<name>.evictions.
+ */
+public class AnnotationCache<V> {
+
+	/**
+	 * Estimates the memory taken by an entry, in any unit, as long as it is
+	 * the one of the maximum weight.
+	 */
+	public interface Weigher<V> {
+		int weigh(String text, V value);
+	}
+
+	private static final class Entry<V> {
+		final V value;
+		final int weight;
+
+		Entry(V value, int weight) {
+			this.value = value;
+			this.weight = weight;
+		}
+	}
+
+	private final String name;
+	private final long maxWeight;
+	private final Weigher<V> weigher;
+
+	/* Access ordered, so the eldest entry is the least recently used */
+	private final LinkedHashMap<String, Entry<V>> entries = new LinkedHashMap<String, Entry<V>>(
+			64, 0.75f, true);
+	private long weight;
+
+	private final Counter hits;
+	private final Counter misses;
+	private final Counter evictions;
+
+	public AnnotationCache(String name, long maxWeight, Weigher<V> weigher) {
+		this.name = name;
+		this.maxWeight = maxWeight;
+		this.weigher = weigher;
+
+		Metrics metrics = Metrics.getInstance();
+		hits = metrics.counter("cache." + name + ".hits");
+		misses = metrics.counter("cache." + name + ".misses");
+		evictions = metrics.counter("cache." + name + ".evictions");
+	}
+
+	/**
+	 * @return the cached value, or null
+	 */
+	public V get(String text) {
+		Entry<V> entry;
+		synchronized (entries) {
+			entry = entries.get(text);
+		}
+		if (entry == null) {
+			misses.increment();
+			return null;
+		}
+		hits.increment();
+		return entry.value;
+	}
+
+	/**
+	 * Adds the value, evicting the least recently used entries until the
+	 * weight is within bounds again. Values heavier than the whole cache are
+	 * not kept.
+	 */
+	public void put(String text, V value) {
+		int entryWeight = weigher.weigh(text, value);
+		if (entryWeight > maxWeight) {
+			return;
+		}
+
+		synchronized (entries) {
+			Entry<V> old = entries.put(text, new Entry<V>(value, entryWeight));
+			if (old != null) {
+				weight -= old.weight;
+			}
+			weight += entryWeight;
+
+			Iterator<Map.Entry<String, Entry<V>>> eldest = entries.entrySet().iterator();
+			while (weight > maxWeight && eldest.hasNext()) {
+				weight -= eldest.next().getValue().weight;
+				eldest.remove();
+				evictions.increment();
+			}
+		}
+	}
+
+	public void clear() {
+		synchronized (entries) {
+			entries.clear();
+			weight = 0;
+		}
+	}
+
+	public long getHits() {
+		return hits.get();
+	}
+
+	public long getMisses() {
+		return misses.get();
+	}
+
+	public long getEvictions() {
+		return evictions.get();
+	}
+
+	public int size() {
+		synchronized (entries) {
+			return entries.size();
+		}
+	}
+
+	public long getWeight() {
+		synchronized (entries) {
+			return weight;
+		}
+	}
+
+	@Override
+	public String toString() {
+		long hitCount = hits.get();
+		long total = hitCount + misses.get();
+		return String.format(
+				"%s: %d entries, weight %d/%d, %d hits, %d misses (%.1f%% hit rate), %d evictions",
+				name, size(), getWeight(), maxWeight, hitCount, total - hitCount,
+				total == 0 ? 0.0 : 100.0 * hitCount / total, evictions.get());
+	}
+}
@@ -5,9 +5,13 @@ import java.util.Collections;
 import java.util.List;
 
 import nlp.objects.Sentence;
-import nlp.objects.TagDataLoader.TagType;
+import nlp.objects.Word;
+import nlp.objects.TagDataLoader;
+import nlp.objects.TagDataLoader.CostTable;
 import trie.serial.Branch;
 import util.Tuple;
+import util.metrics.Counter;
+import util.metrics.Metrics;
 
 public class EditDistance {
 
@@ -19,164 +23,399 @@ public class EditDistance {
 	Delete, Insert, Replace, NoChange, Terminate, Start
     }
 
-    public static Integer editDistance(Sentence sentence, Branch branch) {
-	Integer sentSize = sentence.getTokens().size();
-	Integer branchSize = branch.size();
+    /*
+     * Matrix cells computed by all edit distances, added once per call.
+     * TrieMatcher adds its cells to the same counter.
+     */
+    private static final Counter CELLS = Metrics.getInstance().counter(
+	    "scoring.cells");
 
-	Integer[][] distMatrix = new Integer[sentSize + 1][branchSize + 1];
+    /* Reusable buffers, one set per thread */
+    private static final class Scratch {
+	int[] sentence = new int[32];
+	int[] previous = new int[32];
+	int[] current = new int[32];
+	byte[] operations = new byte[32 * 32];
+
+	int[] sentence(int size) {
+	    if (sentence.length < size) {
+		sentence = new int[size * 2];
+	    }
+	    return sentence;
+	}
+
+	void rows(int size) {
+	    if (previous.length < size) {
+		previous = new int[size * 2];
+		current = new int[size * 2];
+	    }
+	}
+
+	byte[] operations(int size) {
+	    if (operations.length < size) {
+		operations = new byte[size * 2];
+	    }
+	    return operations;
+	}
+    }
+
+    private static final ThreadLocal<Scratch> scratch = new ThreadLocal<Scratch>() {
+	@Override
+	protected Scratch initialValue() {
+	    return new Scratch();
+	}
+    };
+
+    /**
+     * Copies the TagType ordinals of the sentence into a thread local buffer.
+     */
+    private static int[] tagOrdinals(Sentence sentence, Scratch buffers) {
+	List<Word> tokens = sentence.getTokens();
+	int[] ordinals = buffers.sentence(tokens.size());
+	for (int i = 0; i < tokens.size(); i++) {
+	    ordinals[i] = tokens.get(i).getTag().getTagType().ordinal();
+	}
+	return ordinals;
+    }
+
+    public static int editDistance(Sentence sentence, Branch branch) {
+	Scratch buffers = scratch.get();
+	int[] original = tagOrdinals(sentence, buffers);
+	int[] target = branch.tagOrdinals();
+	return editDistance(TagDataLoader.costs(), original, sentence.getTokens().size(),
+		target, target.length);
+    }
+
+    /**
+     * Edit distance between two sequences of TagType ordinals. Only two rows
+     * of the matrix are kept, both reused from a thread local buffer.
+     * 
+     * @param costs
+     *            Cost table to use
+     * @param original
+     *            Ordinals of the sentence
+     * @param originalSize
+     *            Number of ordinals to use from original
+     * @param target
+     *            Ordinals of the branch
+     * @param targetSize
+     *            Number of ordinals to use from target
+     * @return cost to turn original into target
+     */
+    public static int editDistance(CostTable costs, int[] original,
+	    int originalSize, int[] target, int targetSize) {
+	int[] insertion = costs.insertion;
+	int[] deletion = costs.deletion;
+	int[] substitution = costs.substitution;
+	int tagCount = costs.tagCount;
+
+	Scratch buffers = scratch.get();
+	buffers.rows(targetSize + 1);
+	int[] previous = buffers.previous;
+	int[] current = buffers.current;
 
 	/* Init Insertion and deletion costs */
-	distMatrix[0][0] = 0;
-	for (int i = 1; i <= branchSize; i++) {
-	    distMatrix[0][i] = distMatrix[0][i - 1]
-		    + branch.get(i - 1).getTag().getTagType()
-			    .getInsertionCost();
+	previous[0] = 0;
+	for (int j = 1; j <= targetSize; j++) {
+	    previous[j] = previous[j - 1] + insertion[target[j - 1]];
 	}
 
-	for (int i = 1; i <= sentSize; i++) {
-	    distMatrix[i][0] = distMatrix[i - 1][0]
-		    + sentence.getTokens().get(i - 1).getTag().getTagType()
-			    .getDeletionCost();
+	for (int i = 1; i <= originalSize; i++) {
+	    int tag = original[i - 1];
+	    int delete = deletion[tag];
+	    int row = tag * tagCount;
+
+	    current[0] = previous[0] + delete;
+	    for (int j = 1; j <= targetSize; j++) {
+		int other = target[j - 1];
+		if (other == tag) {
+		    current[j] = previous[j - 1];
+		} else {
+		    int insCost = current[j - 1] + insertion[other];
+		    int delCost = previous[j] + delete;
+		    int subsCost = previous[j - 1] + substitution[row + other];
+		    current[j] = Math.min(Math.min(insCost, delCost), subsCost);
+		}
+	    }
+
+	    int[] swap = previous;
+	    previous = current;
+	    current = swap;
 	}
+	CELLS.add((long) originalSize * targetSize);
+	return previous[targetSize];
+    }
 
-	for (int i = 1; i <= sentSize; i++) {
-	    TagType original = sentence.getTokens().get(i - 1).getTag()
-		    .getTagType();
-	    for (int j = 1; j <= branchSize; j++) {
+    /**
+     * Returned by the cut off variants when the cost is not below the cut off.
+     */
+    public static final int ABANDONED = Integer.MAX_VALUE;
 
-		TagType target = branch.get(j - 1).getTag().getTagType();
+    /* Cells outside the band. Small enough that adding a cost cannot overflow. */
+    private static final int OUTSIDE = Integer.MAX_VALUE / 2;
 
-		if (target == original) {
-		    distMatrix[i][j] = distMatrix[i - 1][j - 1];
+    /**
+     * Edit distance, if it is below maxCost.
+     * 
+     * Only the diagonal band of the matrix that can be reached for less than
+     * maxCost is computed, and the computation stops as soon as a whole row
+     * is at or above maxCost.
+     * 
+     * @return the cost, or ABANDONED if it is maxCost or more
+     */
+    public static int editDistance(Sentence sentence, Branch branch,
+	    int maxCost) {
+	return editDistance(TagDataLoader.costs(), sentence, branch, maxCost);
+    }
 
+    /**
+     * Same as editDistance(Sentence, Branch, int), with the given costs.
+     */
+    public static int editDistance(CostTable costs, Sentence sentence,
+	    Branch branch, int maxCost) {
+	Scratch buffers = scratch.get();
+	int[] original = tagOrdinals(sentence, buffers);
+	int[] target = branch.tagOrdinals();
+	return editDistance(costs, original, sentence.getTokens().size(),
+		target, target.length, maxCost);
+    }
+
+    /**
+     * Banded edit distance with early abandon, see
+     * editDistance(Sentence, Branch, int).
+     * 
+     * A cell (i, j) with j > i needs at least j - i insertions to be reached,
+     * and (n - i) - (m - j) more deletions (or insertions) to get from it to
+     * the last cell. Using the cheapest insertion among the target tags and
+     * the cheapest deletion among the original tags, this gives a lower bound
+     * for every diagonal. Diagonals whose bound is maxCost or more are never
+     * computed.
+     */
+    public static int editDistance(CostTable costs, int[] original,
+	    int originalSize, int[] target, int targetSize, int maxCost) {
+	int[] insertion = costs.insertion;
+	int[] deletion = costs.deletion;
+	int[] substitution = costs.substitution;
+	int tagCount = costs.tagCount;
+
+	/* Cheapest insertion and deletion that can occur at all */
+	int minInsertion = OUTSIDE;
+	for (int j = 0; j < targetSize; j++) {
+	    minInsertion = Math.min(minInsertion, insertion[target[j]]);
+	}
+	int minDeletion = OUTSIDE;
+	for (int i = 0; i < originalSize; i++) {
+	    minDeletion = Math.min(minDeletion, deletion[original[i]]);
+	}
+
+	/* Band of diagonals k = j - i whose lower bound is below maxCost */
+	int last = targetSize - originalSize;
+	int lowDiagonal = 1;
+	int highDiagonal = 0;
+	for (int k = -originalSize; k <= targetSize; k++) {
+	    long bound = diagonalCost(k, minInsertion, minDeletion)
+		    + diagonalCost(last - k, minInsertion, minDeletion);
+	    if (bound < maxCost) {
+		if (lowDiagonal > highDiagonal) {
+		    lowDiagonal = k;
+		}
+		highDiagonal = k;
+	    }
+	}
+	if (lowDiagonal > highDiagonal || last < lowDiagonal
+		|| last > highDiagonal) {
+	    return ABANDONED;
+	}
+
+	Scratch buffers = scratch.get();
+	buffers.rows(targetSize + 2);
+	int[] previous = buffers.previous;
+	int[] current = buffers.current;
+	long cells = 0;
+
+	/* First row, only the insertions inside the band */
+	int high = Math.min(targetSize, highDiagonal);
+	previous[0] = 0;
+	for (int j = 1; j <= high; j++) {
+	    previous[j] = previous[j - 1] + insertion[target[j - 1]];
+	}
+	previous[high + 1] = OUTSIDE;
+
+	for (int i = 1; i <= originalSize; i++) {
+	    int low = Math.max(0, i + lowDiagonal);
+	    high = Math.min(targetSize, i + highDiagonal);
+	    if (low > high) {
+		CELLS.add(cells);
+		return ABANDONED;
+	    }
+
+	    int tag = original[i - 1];
+	    int delete = deletion[tag];
+	    int row = tag * tagCount;
+	    int rowMinimum = OUTSIDE;
+
+	    int start = low;
+	    if (low == 0) {
+		current[0] = previous[0] + delete;
+		rowMinimum = current[0];
+		start = 1;
+	    } else {
+		current[low - 1] = OUTSIDE;
+	    }
+
+	    for (int j = start; j <= high; j++) {
+		int other = target[j - 1];
+		int cost;
+		if (other == tag) {
+		    cost = previous[j - 1];
 		} else {
-		    int insCost = distMatrix[i][j - 1]
-			    + target.getInsertionCost();
-		    int delCost = distMatrix[i - 1][j]
-			    + original.getDeletionCost();
-		    int subsCost = distMatrix[i - 1][j - 1]
-			    + original.getSubstitutionCost(target);
-
-		    distMatrix[i][j] = Math.min(Math.min(insCost, delCost),
-			    subsCost);
+		    int insCost = current[j - 1] + insertion[other];
+		    int delCost = previous[j] + delete;
+		    int subsCost = previous[j - 1] + substitution[row + other];
+		    cost = Math.min(Math.min(insCost, delCost), subsCost);
+		}
+		current[j] = cost;
+		if (cost < rowMinimum) {
+		    rowMinimum = cost;
 		}
+	    }
+	    current[high + 1] = OUTSIDE;
+	    cells += high - low + 1;
 
+	    /* Every path crosses this row, and costs only grow */
+	    if (rowMinimum >= maxCost) {
+		CELLS.add(cells);
+		return ABANDONED;
 	    }
+
+	    int[] swap = previous;
+	    previous = current;
+	    current = swap;
 	}
-	// printMatrix(distMatrix);
-	return distMatrix[sentSize][branchSize];
+
+	CELLS.add(cells);
+	int cost = previous[targetSize];
+	return cost < maxCost ? cost : ABANDONED;
+    }
+
+    /* Lower bound of the cost to move k diagonals (k > 0 inserts, k < 0 deletes) */
+    private static long diagonalCost(int k, int minInsertion, int minDeletion) {
+	return k >= 0 ? (long) k * minInsertion : (long) -k * minDeletion;
     }
 
     public static Tuple<Integer, List<Operation>> editDistanceExtended(
 	    Sentence sentence, Branch branch) {
-	Integer sentSize = sentence.getTokens().size();
-	Integer branchSize = branch.size();
+	return editDistanceExtended(TagDataLoader.costs(), sentence, branch);
+    }
 
-	Integer[][] distMatrix = new Integer[sentSize + 1][branchSize + 1];
-	Move[][] moveMatrix = new Move[sentSize + 1][branchSize + 1];
-	Operation[][] opMatrix = new Operation[sentSize + 1][branchSize + 1];
+    /**
+     * Same as editDistanceExtended(Sentence, Branch), with the given costs.
+     */
+    public static Tuple<Integer, List<Operation>> editDistanceExtended(
+	    CostTable costs, Sentence sentence, Branch branch) {
+	Scratch buffers = scratch.get();
+	int[] original = tagOrdinals(sentence, buffers);
+	int[] target = branch.tagOrdinals();
+	return editDistanceExtended(costs, original, sentence.getTokens()
+		.size(), target, target.length);
+    }
 
-	/* Init Insertion and deletion costs */
-	distMatrix[0][0] = 0;
-	opMatrix[0][0] = Operation.Start;
-	
-	for (int i = 1; i <= branchSize; i++) {
-	    distMatrix[0][i] = distMatrix[0][i - 1]
-		    + branch.get(i - 1).getTag().getTagType()
-			    .getInsertionCost();
-	    opMatrix[0][i] = Operation.Insert;
-	}
+    private static final Operation[] OPERATIONS = Operation.values();
 
-	for (int i = 1; i <= sentSize; i++) {
-	    distMatrix[i][0] = distMatrix[i - 1][0]
-		    + sentence.getTokens().get(i - 1).getTag().getTagType()
-			    .getDeletionCost();
-	    opMatrix[i][0] = Operation.Delete;
-	}
+    /**
+     * Edit distance with the sequence of operations that turns original into
+     * target. Costs are kept in two rows, the operations in a thread local
+     * matrix for the traceback.
+     */
+    public static Tuple<Integer, List<Operation>> editDistanceExtended(
+	    CostTable costs, int[] original, int originalSize, int[] target,
+	    int targetSize) {
+	int[] insertion = costs.insertion;
+	int[] deletion = costs.deletion;
+	int[] substitution = costs.substitution;
+	int tagCount = costs.tagCount;
 
-	for (int i = 1; i <= sentSize; i++) {
-	    TagType original = sentence.getTokens().get(i - 1).getTag()
-		    .getTagType();
-	    for (int j = 1; j <= branchSize; j++) {
+	int width = targetSize + 1;
+	Scratch buffers = scratch.get();
+	buffers.rows(width);
+	int[] previous = buffers.previous;
+	int[] current = buffers.current;
+	byte[] ops = buffers.operations((originalSize + 1) * width);
 
-		TagType target = branch.get(j - 1).getTag().getTagType();
+	/* Init Insertion and deletion costs */
+	previous[0] = 0;
+	ops[0] = (byte) Operation.Start.ordinal();
+	for (int j = 1; j <= targetSize; j++) {
+	    previous[j] = previous[j - 1] + insertion[target[j - 1]];
+	    ops[j] = (byte) Operation.Insert.ordinal();
+	}
 
-		if (target == original) {
-		    distMatrix[i][j] = distMatrix[i - 1][j - 1];
-		    opMatrix[i][j] = Operation.NoChange;
-		    moveMatrix[i][j] = Move.Diagonal;
-		    
+	for (int i = 1; i <= originalSize; i++) {
+	    int tag = original[i - 1];
+	    int delete = deletion[tag];
+	    int row = tag * tagCount;
+	    int cell = i * width;
+
+	    current[0] = previous[0] + delete;
+	    ops[cell] = (byte) Operation.Delete.ordinal();
+	    for (int j = 1; j <= targetSize; j++) {
+		int other = target[j - 1];
+		if (other == tag) {
+		    current[j] = previous[j - 1];
+		    ops[cell + j] = (byte) Operation.NoChange.ordinal();
 		} else {
-		    int insCost = distMatrix[i][j - 1]
-			    + target.getInsertionCost();
-		    int delCost = distMatrix[i - 1][j]
-			    + original.getDeletionCost();
-		    int subsCost = distMatrix[i - 1][j - 1]
-			    + original.getSubstitutionCost(target);
+		    int insCost = current[j - 1] + insertion[other];
+		    int delCost = previous[j] + delete;
+		    int subsCost = previous[j - 1] + substitution[row + other];
 
 		    if (subsCost <= insCost && subsCost <= delCost) {
-			distMatrix[i][j] = subsCost;
-			opMatrix[i][j] = Operation.Replace;
-			moveMatrix[i][j] = Move.Diagonal;
+			current[j] = subsCost;
+			ops[cell + j] = (byte) Operation.Replace.ordinal();
 		    } else if (insCost <= delCost && insCost < subsCost) {
-			distMatrix[i][j] = insCost;
-			opMatrix[i][j] = Operation.Insert;
-			moveMatrix[i][j] = Move.Side;
+			current[j] = insCost;
+			ops[cell + j] = (byte) Operation.Insert.ordinal();
 		    } else {
-			distMatrix[i][j] = delCost;
-			opMatrix[i][j] = Operation.Delete;
-			moveMatrix[i][j] = Move.Down;
+			current[j] = delCost;
+			ops[cell + j] = (byte) Operation.Delete.ordinal();
 		    }
-		    // distMatrix[i][j] = Math.min(Math.min(insCost, delCost),
-		    // subsCost);
 		}
-
 	    }
+
+	    int[] swap = previous;
+	    previous = current;
+	    current = swap;
 	}
-	//opMatrix[sentSize][branchSize] = Operation.Terminate;
-	/*for (int i = 0; i < opMatrix.length; i++) {
-	    for (int j = 0; j < opMatrix[i].length; j++)
-		System.out.printf("%10s", opMatrix[i][j]);
-	    System.out.println();
-	}
-	for (int i = 0; i < opMatrix.length; i++) {
-	    for (int j = 0; j < opMatrix[i].length; j++)
-		System.out.printf("%10s", moveMatrix[i][j]);
-	    System.out.println();
-	}*/
-	//printMatrix(distMatrix, sentence, branch);
-	return new Tuple<Integer, List<Operation>>(
-		distMatrix[sentSize][branchSize],
-		getOperationSequence(opMatrix));
+
+	CELLS.add((long) originalSize * targetSize);
+	return new Tuple<Integer, List<Operation>>(previous[targetSize],
+		getOperationSequence(ops, originalSize, targetSize));
     }
 
-    private static List<Operation> getOperationSequence(Operation[][] ops) {
-	List<Operation> opList = new ArrayList<Operation>();
-	int i = ops.length - 1;
-	int j = ops[0].length - 1;
-	while (ops[i][j] != Operation.Start) {
-	    switch (ops[i][j]) {
+    private static List<Operation> getOperationSequence(byte[] ops,
+	    int originalSize, int targetSize) {
+	int width = targetSize + 1;
+	List<Operation> opList = new ArrayList<Operation>(originalSize
+		+ targetSize);
+	int i = originalSize;
+	int j = targetSize;
+	while (OPERATIONS[ops[i * width + j]] != Operation.Start) {
+	    Operation op = OPERATIONS[ops[i * width + j]];
+	    switch (op) {
 	    case NoChange:
-		i -= 1;
-		j -= 1;
-		opList.add(Operation.NoChange);
-		break;
 	    case Replace:
 		i -= 1;
 		j -= 1;
-		opList.add(Operation.Replace);
 		break;
 	    case Insert:
 		j -= 1;
-		opList.add(Operation.Insert);
 		break;
 	    case Delete:
 		i -= 1;
-		opList.add(Operation.Delete);
 		break;
 	    default:
 		break;
 	    }
+	    opList.add(op);
 	}
 	Collections.reverse(opList);
 	return opList;
@@ -0,0 +1,126 @@
+package nlp.processing;
+
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import nlp.objects.Attribute;
+import nlp.objects.Entity;
+import nlp.objects.Model;
+import nlp.objects.RelationEntity;
+import nlp.objects.Relationship;
+import nlp.objects.Sentence;
+import nlp.objects.Sentences;
+import util.metrics.Counter;
+import util.metrics.Metrics;
+import erTagger.ERTagger;
+
+/**
+ * Lemmatized names of entities, attributes and relationships, shared by all
+ * model objects.
+ * 
+ * The same few names come up in most sentences of the training data. Every
+ * distinct name is lemmatized once, and all names of a set of sentences can
+ * be lemmatized together with a single run of the pipeline.
+ * 
+ * Only the names of the training data are kept, those that were preloaded
+ * or added. Any other name, e.g. the names lookups give the data model after
+ * the words of the request, is lemmatized through the bounded lemma cache of
+ * the StanfordProcessor and not kept here, so the dictionary does not grow
+ * with the requests of a running server.
+ */
+public class LemmaDictionary {
+
+	private static final LemmaDictionary instance = new LemmaDictionary();
+
+	private final Map<String, String> lemmas = new ConcurrentHashMap<String, String>();
+
+	private final Counter hits = Metrics.getInstance().counter("cache.dictionary.hits");
+	private final Counter misses = Metrics.getInstance().counter("cache.dictionary.misses");
+
+	private LemmaDictionary() {
+	}
+
+	public static LemmaDictionary getInstance() {
+		return instance;
+	}
+
+	/**
+	 * @return the lemmatized name, see StanfordProcessor.lemmatiseString. A
+	 *         name that is not known is not added.
+	 */
+	public String lemma(String name) {
+		String lemma = lemmas.get(name);
+		if (lemma == null) {
+			misses.increment();
+			lemma = StanfordProcessor.getInstance().lemmatiseString(name);
+		} else {
+			hits.increment();
+		}
+		return lemma;
+	}
+
+	/**
+	 * Adds a name whose lemma is already known, e.g. from the lemmas of
+	 * tagged tokens. A name that is known already keeps its lemma.
+	 */
+	public void add(String name, String lemma) {
+		lemmas.putIfAbsent(name, lemma);
+	}
+
+	/**
+	 * Lemmatize all names that are not known yet at once.
+	 */
+	public void preload(Collection<String> names) {
+		Set<String> missing = new LinkedHashSet<String>();
+		for (String name : names) {
+			if (name != null && name.isEmpty() == false
+					&& lemmas.containsKey(name) == false) {
+				missing.add(name);
+			}
+		}
+		if (missing.isEmpty()) {
+			return;
+		}
+
+		ERTagger.LOGGER.config(String.format("Lemmatizing %d distinct names...",
+				missing.size()));
+		lemmas.putAll(StanfordProcessor.getInstance().lemmatiseStrings(missing));
+	}
+
+	/**
+	 * Lemmatize the names of the data models of all sentences at once.
+	 */
+	public void preload(Sentences sentences) {
+		Set<String> names = new LinkedHashSet<String>();
+		for (Sentence sentence : sentences.getSentence()) {
+			collectNames(sentence.getDataModel(), names);
+		}
+		preload(names);
+	}
+
+	/**
+	 * Adds the names of all entities, attributes and relationships of the
+	 * model to the collection, to be preloaded later.
+	 */
+	public static void collectNames(Model model, Collection<String> names) {
+		for (Entity entity : model.getEntities()) {
+			names.add(entity.getName());
+			for (Attribute attribute : entity.getAttributes()) {
+				names.add(attribute.getName());
+			}
+		}
+		for (Relationship relationship : model.getRelationships()) {
+			names.add(relationship.getName());
+			for (RelationEntity entity : relationship.getConnects()) {
+				names.add(entity.getName());
+			}
+		}
+	}
+
+	public int size() {
+		return lemmas.size();
+	}
+}
@@ -0,0 +1,189 @@
+package nlp.processing;
+
+import java.util.Properties;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import edu.stanford.nlp.pipeline.Annotation;
+import edu.stanford.nlp.pipeline.StanfordCoreNLP;
+import util.metrics.Histogram;
+import util.metrics.Metrics;
+
+/**
+ * Fixed number of pipelines with the same properties, borrowed by one caller
+ * at a time. A pipeline keeps state while annotating, so it is never shared
+ * by two threads at once.
+ *
+ * Pipelines are created on demand, up to the size of the pool, as loading
+ * the models is slow and takes a lot of memory. Callers that find every
+ * pipeline in use wait for one to be returned. The time spent waiting is
+ * recorded, so that the pool can be sized to the load. The time spent
+ * annotating, without the wait, goes to the metric annotation.<name>.
+ *
+ * Waiting does not hold a monitor, so callers may be virtual threads.
+ */
+public class PipelinePool {
+
+	private final String name;
+	private final Properties properties;
+	private final int size;
+
+	private final LinkedBlockingQueue<StanfordCoreNLP> idle = new LinkedBlockingQueue<StanfordCoreNLP>();
+	private final AtomicInteger created = new AtomicInteger();
+
+	private final LongAdder borrows = new LongAdder();
+	private final LongAdder waits = new LongAdder();
+	private final LongAdder waitNanos = new LongAdder();
+	private final AtomicLong maxWaitNanos = new AtomicLong();
+
+	private final Histogram latency;
+
+	/**
+	 * @param size
+	 *            Maximum number of pipelines, at least one
+	 */
+	public PipelinePool(String name, Properties properties, int size) {
+		if (size < 1) {
+			throw new IllegalArgumentException("Pipeline pool size must be positive: " + size);
+		}
+		this.name = name;
+		this.properties = properties;
+		this.size = size;
+		this.latency = Metrics.getInstance().histogram("annotation." + name.replace(' ', '_'));
+	}
+
+	/**
+	 * Annotates on a pipeline of the pool, waiting for one if all are busy.
+	 */
+	public void annotate(Annotation annotation) {
+		StanfordCoreNLP pipeline = borrow();
+		long start = System.nanoTime();
+		try {
+			pipeline.annotate(annotation);
+		} finally {
+			latency.recordSince(start);
+			idle.offer(pipeline);
+		}
+	}
+
+	/**
+	 * Creates the first pipeline, if there is none yet, so that the models
+	 * are loaded before the pool is used.
+	 */
+	public void prestart() {
+		if (created.get() == 0) {
+			StanfordCoreNLP pipeline = create();
+			if (pipeline != null) {
+				idle.offer(pipeline);
+			}
+		}
+	}
+
+	private StanfordCoreNLP borrow() {
+		borrows.increment();
+		StanfordCoreNLP pipeline = idle.poll();
+		if (pipeline == null) {
+			pipeline = create();
+		}
+		if (pipeline != null) {
+			return pipeline;
+		}
+
+		/* Every pipeline is in use */
+		long start = System.nanoTime();
+		boolean interrupted = false;
+		try {
+			while (true) {
+				try {
+					pipeline = idle.take();
+					break;
+				} catch (InterruptedException ie) {
+					/* The annotation has to be done anyway, keep the flag */
+					interrupted = true;
+				}
+			}
+		} finally {
+			if (interrupted) {
+				Thread.currentThread().interrupt();
+			}
+		}
+
+		long waited = System.nanoTime() - start;
+		waits.increment();
+		waitNanos.add(waited);
+		long max;
+		do {
+			max = maxWaitNanos.get();
+		} while (waited > max && maxWaitNanos.compareAndSet(max, waited) == false);
+		return pipeline;
+	}
+
+	/* A new pipeline, or null if the pool is full */
+	private StanfordCoreNLP create() {
+		int count;
+		do {
+			count = created.get();
+			if (count >= size) {
+				return null;
+			}
+		} while (created.compareAndSet(count, count + 1) == false);
+		try {
+			return new StanfordCoreNLP(properties);
+		} catch (RuntimeException e) {
+			/* Let the next borrow try again */
+			created.decrementAndGet();
+			throw e;
+		}
+	}
+
+	public int getSize() {
+		return size;
+	}
+
+	/**
+	 * @return number of pipelines created so far
+	 */
+	public int getCreated() {
+		return created.get();
+	}
+
+	public long getBorrows() {
+		return borrows.sum();
+	}
+
+	/**
+	 * @return number of borrows that had to wait for a pipeline
+	 */
+	public long getWaits() {
+		return waits.sum();
+	}
+
+	/**
+	 * @return total time spent waiting for a pipeline, in nanoseconds
+	 */
+	public long getWaitNanos() {
+		return waitNanos.sum();
+	}
+
+	/**
+	 * @return longest time a borrow waited for a pipeline, in nanoseconds
+	 */
+	public long getMaxWaitNanos() {
+		return maxWaitNanos.get();
+	}
+
+	@Override
+	public String toString() {
+		long borrowCount = borrows.sum();
+		long waitCount = waits.sum();
+		long waited = waitNanos.sum();
+		return String.format(
+				"%s: %d/%d pipelines, %d borrows, %d waited (%.1f%%), %.3f ms average wait, %.3f ms longest wait",
+				name, created.get(), size, borrowCount, waitCount,
+				borrowCount == 0 ? 0.0 : 100.0 * waitCount / borrowCount,
+				waitCount == 0 ? 0.0 : waited / 1e6 / waitCount,
+				maxWaitNanos.get() / 1e6);
+	}
+}
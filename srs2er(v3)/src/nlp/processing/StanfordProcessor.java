@@ -1,9 +1,19 @@
 package nlp.processing;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Properties;
+import java.util.Set;
+import java.util.logging.Level;
 
+import edu.stanford.nlp.ling.CoreAnnotations.CharacterOffsetBeginAnnotation;
+import edu.stanford.nlp.ling.CoreAnnotations.CharacterOffsetEndAnnotation;
 import edu.stanford.nlp.ling.CoreAnnotations.LemmaAnnotation;
 import edu.stanford.nlp.ling.CoreAnnotations.PartOfSpeechAnnotation;
 import edu.stanford.nlp.ling.CoreAnnotations.SentencesAnnotation;
@@ -11,47 +21,224 @@ import edu.stanford.nlp.ling.CoreAnnotations.TextAnnotation;
 import edu.stanford.nlp.ling.CoreAnnotations.TokensAnnotation;
 import edu.stanford.nlp.ling.CoreLabel;
 import edu.stanford.nlp.pipeline.Annotation;
-import edu.stanford.nlp.pipeline.StanfordCoreNLP;
 import edu.stanford.nlp.util.CoreMap;
 import edu.stanford.nlp.util.Triple;
 import erTagger.ERTagger;
+import nlp.objects.Sentence;
+import util.Tuple;
 
 public class StanfordProcessor {
 
-	private static StanfordProcessor instance = null;
-	private StanfordCoreNLP pipeline;
+	private static final String ANNOTATORS = "tokenize, ssplit, pos, lemma";
+
+	/*
+	 * A pipeline is not safe for concurrent use. Every caller borrows one of
+	 * the pool, there is one per core at most.
+	 */
+	private static final int POOL_SIZE = Runtime.getRuntime().availableProcessors();
+
+	private final PipelinePool pipelines;
+
+	/* Same annotators, but every line is a sentence, see lemmatiseStrings */
+	private final PipelinePool linePipelines;
+
+	/* Same annotators, but an empty line ends a sentence, see AnnotateParagraphs */
+	private final PipelinePool paragraphPipelines;
+
+	/*
+	 * Maximum weight of every cache, in characters of input and output text.
+	 * Requirement documents repeat the same sentences and names a lot.
+	 */
+	private static final long CACHE_WEIGHT = 1 << 20;
+
+	/* Weight of cached lemmas */
+	private static final AnnotationCache.Weigher<String> LEMMA_WEIGHER = new AnnotationCache.Weigher<String>() {
+		@Override
+		public int weigh(String text, String lemmas) {
+			return text.length() + lemmas.length();
+		}
+	};
+
+	/*
+	 * Results of the pipelines by input text. A cache only holds results of
+	 * pipelines that split the text the same way, so the text alone is the
+	 * key. lemmatiseStrings has its own cache, as the line pipelines keep a
+	 * string in one sentence where the default pipelines may split it.
+	 * Paragraphs are batched only if they hold no line break, the one place
+	 * the paragraph pipelines differ, so both fill the paragraph cache.
+	 */
+	private final AnnotationCache<String> lemmaCache = new AnnotationCache<String>(
+			"lemmas", CACHE_WEIGHT, LEMMA_WEIGHER);
+	private final AnnotationCache<String> lineLemmaCache = new AnnotationCache<String>(
+			"line lemmas", CACHE_WEIGHT, LEMMA_WEIGHER);
+	private final AnnotationCache<List<Triple<String, String, String>>> tokenCache = new AnnotationCache<List<Triple<String, String, String>>>(
+			"tokens", CACHE_WEIGHT, new AnnotationCache.Weigher<List<Triple<String, String, String>>>() {
+				@Override
+				public int weigh(String text, List<Triple<String, String, String>> tokens) {
+					int weight = text.length();
+					for (Triple<String, String, String> token : tokens) {
+						weight += length(token.first()) + length(token.second())
+								+ length(token.third());
+					}
+					return weight;
+				}
+			});
+	private final AnnotationCache<List<String>> sentenceCache = new AnnotationCache<List<String>>(
+			"sentences", CACHE_WEIGHT, new AnnotationCache.Weigher<List<String>>() {
+				@Override
+				public int weigh(String text, List<String> sentences) {
+					int weight = text.length();
+					for (String sentence : sentences) {
+						weight += sentence.length();
+					}
+					return weight;
+				}
+			});
+
+	private final AnnotationCache<List<Tuple<String, List<Triple<String, String, String>>>>> paragraphCache = new AnnotationCache<List<Tuple<String, List<Triple<String, String, String>>>>>(
+			"paragraphs", CACHE_WEIGHT, new AnnotationCache.Weigher<List<Tuple<String, List<Triple<String, String, String>>>>>() {
+				@Override
+				public int weigh(String text, List<Tuple<String, List<Triple<String, String, String>>>> sentences) {
+					/* Words, lemmas and tags take about three times the text */
+					return text.length() * 3;
+				}
+			});
+
+	private static int length(String string) {
+		return string == null ? 0 : string.length();
+	}
 
 	public String lemmatiseString(String string) {
+		String lemmString = lemmaCache.get(string);
+		if (lemmString == null) {
+			lemmString = lemmatise(string);
+			lemmaCache.put(string, lemmString);
+		}
 		
+		if (ERTagger.LOGGER.isLoggable(Level.FINEST)) {
+			ERTagger.LOGGER.finest(String.format("lemmatiseString() - String: %-15s LemmString: %-15s", string, lemmString));
+		}
+		return lemmString;
+	}
+
+	private String lemmatise(String string) {
 		Annotation annotation = new Annotation(string);
-		this.pipeline.annotate(annotation);
+		pipelines.annotate(annotation);
+		return lemmas(annotation);
+	}
 
-		List<CoreLabel> labels = annotation.get(TokensAnnotation.class);
+	/* Lemmas of all tokens, joined with underscores */
+	private static String lemmas(CoreMap annotated) {
+		List<CoreLabel> labels = annotated.get(TokensAnnotation.class);
 		String lemmString = "";
 		for (CoreLabel coreLabel : labels) {
 			lemmString += coreLabel.get(LemmaAnnotation.class) + "_";
 		}
-		lemmString = lemmString.substring(0, lemmString.length() - 1);
-		
-		ERTagger.LOGGER.finest(String.format("lemmatiseString() - String: %-15s LemmString: %-15s", string, lemmString));
-		return lemmString;
+		if (lemmString.isEmpty()) {
+			/* Nothing to lemmatise, e.g. a name beyond the end of a sentence */
+			return lemmString;
+		}
+		return lemmString.substring(0, lemmString.length() - 1);
+	}
+
+	/**
+	 * Lemmatise many strings with one run of the pipeline. Gives the same
+	 * results as lemmatiseString on every string that is a single sentence.
+	 * 
+	 * The strings are annotated one per line, with every line a sentence of
+	 * its own, so each string is tagged without context as it would be alone.
+	 * Results are cached apart from those of lemmatiseString.
+	 * 
+	 * @return lemmatised string by string
+	 */
+	public Map<String, String> lemmatiseStrings(Collection<String> strings) {
+		Map<String, String> lemmatised = new HashMap<String, String>();
+		List<String> lines = new ArrayList<String>(strings.size());
+		StringBuilder text = new StringBuilder();
+		for (String string : strings) {
+			if (string.trim().isEmpty() || string.indexOf('\n') >= 0
+					|| string.indexOf('\r') >= 0) {
+				/* Cannot be a line of its own */
+				lemmatised.put(string, lemmatiseString(string));
+				continue;
+			}
+			String cached = lineLemmaCache.get(string);
+			if (cached != null) {
+				lemmatised.put(string, cached);
+				continue;
+			}
+			lines.add(string);
+			text.append(string).append('\n');
+		}
+		if (lines.isEmpty()) {
+			return lemmatised;
+		}
+
+		Annotation annotation = new Annotation(text.toString());
+		linePipelines.annotate(annotation);
+		List<CoreMap> sentences = annotation.get(SentencesAnnotation.class);
+
+		if (sentences.size() != lines.size()) {
+			ERTagger.LOGGER.warning(String.format(
+					"Batch lemmatisation gave %d sentences for %d strings, lemmatising one by one.",
+					sentences.size(), lines.size()));
+			for (String line : lines) {
+				lemmatised.put(line, lemmatiseString(line));
+			}
+			return lemmatised;
+		}
+
+		for (int i = 0; i < lines.size(); i++) {
+			String lemmString = lemmas(sentences.get(i));
+			lemmatised.put(lines.get(i), lemmString);
+			lineLemmaCache.put(lines.get(i), lemmString);
+		}
+		return lemmatised;
 	}
 
 	private StanfordProcessor() {
 		Properties props;
 		props = new Properties();
-		props.put("annotators", "tokenize, ssplit, pos, lemma");
+		props.put("annotators", ANNOTATORS);
 
-		this.pipeline = new StanfordCoreNLP(props);
+		pipelines = new PipelinePool("pipelines", props, POOL_SIZE);
+		pipelines.prestart();
+
+		Properties lineProps = new Properties();
+		lineProps.put("annotators", ANNOTATORS);
+		lineProps.put("ssplit.eolonly", "true");
+		linePipelines = new PipelinePool("line pipelines", lineProps, POOL_SIZE);
+
+		Properties paragraphProps = new Properties();
+		paragraphProps.put("annotators", ANNOTATORS);
+		paragraphProps.put("ssplit.newlineIsSentenceBreak", "two");
+		paragraphPipelines = new PipelinePool("paragraph pipelines", paragraphProps, POOL_SIZE);
 	}
 
+	/**
+	 * Tokens of the text with their lemma and POS tag. The list is shared and
+	 * cannot be modified.
+	 */
 	public List<Triple<String, String, String>> Annotate(String text) {
+		List<Triple<String, String, String>> tokens = tokenCache.get(text);
+		if (tokens == null) {
+			tokens = Collections.unmodifiableList(annotate(text));
+			tokenCache.put(text, tokens);
+		}
+		return tokens;
+	}
+
+	private List<Triple<String, String, String>> annotate(String text) {
 		Annotation annotation = new Annotation(text);
-		this.pipeline.annotate(annotation);
+		pipelines.annotate(annotation);
+		return tokens(annotation);
+	}
 
+	/* Word, lemma and POS of every token of an annotated text or sentence */
+	private static List<Triple<String, String, String>> tokens(CoreMap annotated) {
 		List<Triple<String, String, String>> tokens = new LinkedList<Triple<String, String, String>>();
 
-		List<CoreLabel> labels = annotation.get(TokensAnnotation.class);
+		List<CoreLabel> labels = annotated.get(TokensAnnotation.class);
 		for (CoreLabel coreLabel : labels) {
 			Triple<String, String, String> token = new Triple<String, String, String>(
 					coreLabel.get(TextAnnotation.class),
@@ -63,18 +250,182 @@ public class StanfordProcessor {
 
 	}
 
+	/**
+	 * Split the paragraph into tagged sentences with a single run of the
+	 * pipeline. Same as creating a Sentence from every string returned by
+	 * ParagraphToSentences, except that each sentence is tagged in the context
+	 * of its paragraph instead of being annotated again on its own.
+	 * 
+	 * @param paragraphText
+	 *            Paragraph text
+	 * @return New sentence objects, in paragraph order.
+	 */
+	public List<Sentence> AnnotateParagraph(String paragraphText) {
+		List<Tuple<String, List<Triple<String, String, String>>>> annotated = paragraphCache
+				.get(paragraphText);
+		if (annotated == null) {
+			annotated = annotateAndCache(paragraphText);
+		}
+		return toSentences(annotated);
+	}
+
+	/**
+	 * Split many paragraphs into tagged sentences with a single run of the
+	 * pipeline. Gives the same results as AnnotateParagraph on every
+	 * paragraph.
+	 * 
+	 * The paragraphs that are not cached are annotated together, separated
+	 * by an empty line, so a sentence never spans two paragraphs. Sentences
+	 * are given back to their paragraph by character offset. The results are
+	 * cached as well, but they are returned whether they could be cached or
+	 * not. Every distinct paragraph is looked up in the cache once.
+	 * 
+	 * @return new sentence objects of every paragraph, in paragraph order
+	 */
+	public List<List<Sentence>> AnnotateParagraphs(List<String> paragraphTexts) {
+		Map<String, List<Tuple<String, List<Triple<String, String, String>>>>> annotated = new HashMap<String, List<Tuple<String, List<Triple<String, String, String>>>>>();
+		List<String> batch = new ArrayList<String>();
+		Set<String> batched = new HashSet<String>();
+		List<String> single = new ArrayList<String>();
+		StringBuilder text = new StringBuilder();
+		List<Integer> starts = new ArrayList<Integer>();
+		for (String paragraphText : paragraphTexts) {
+			if (annotated.containsKey(paragraphText) || batched.contains(paragraphText)) {
+				continue;
+			}
+			List<Tuple<String, List<Triple<String, String, String>>>> cached = paragraphCache
+					.get(paragraphText);
+			if (cached != null) {
+				annotated.put(paragraphText, cached);
+			} else if (paragraphText.trim().isEmpty() || paragraphText.indexOf('\n') >= 0
+					|| paragraphText.indexOf('\r') >= 0) {
+				/* Cannot be separated from the others, annotated on its own */
+				annotated.put(paragraphText, annotateAndCache(paragraphText));
+			} else {
+				if (text.length() > 0) {
+					text.append("\n\n");
+				}
+				batch.add(paragraphText);
+				batched.add(paragraphText);
+				starts.add(text.length());
+				text.append(paragraphText);
+			}
+		}
+
+		if (batch.size() > 1) {
+			Annotation annotation = new Annotation(text.toString());
+			paragraphPipelines.annotate(annotation);
+			List<List<Tuple<String, List<Triple<String, String, String>>>>> split = splitParagraphs(
+					annotation.get(SentencesAnnotation.class), starts, batch.size());
+			if (split == null) {
+				ERTagger.LOGGER.warning(String.format(
+						"Batch annotation mixed up the sentences of %d paragraphs, annotating one by one.",
+						batch.size()));
+			} else {
+				for (int i = 0; i < batch.size(); i++) {
+					List<Tuple<String, List<Triple<String, String, String>>>> sentences = Collections
+							.unmodifiableList(split.get(i));
+					paragraphCache.put(batch.get(i), sentences);
+					annotated.put(batch.get(i), sentences);
+				}
+			}
+		}
+		for (String paragraphText : batch) {
+			if (annotated.containsKey(paragraphText) == false) {
+				annotated.put(paragraphText, annotateAndCache(paragraphText));
+			}
+		}
+
+		List<List<Sentence>> paragraphs = new ArrayList<List<Sentence>>(paragraphTexts.size());
+		for (String paragraphText : paragraphTexts) {
+			paragraphs.add(toSentences(annotated.get(paragraphText)));
+		}
+		return paragraphs;
+	}
+
+	/* Annotates the paragraph on its own */
+	private List<Tuple<String, List<Triple<String, String, String>>>> annotateAndCache(
+			String paragraphText) {
+		List<Tuple<String, List<Triple<String, String, String>>>> annotated = Collections
+				.unmodifiableList(annotateParagraph(paragraphText));
+		paragraphCache.put(paragraphText, annotated);
+		return annotated;
+	}
+
+	private static List<Sentence> toSentences(
+			List<Tuple<String, List<Triple<String, String, String>>>> annotated) {
+		List<Sentence> sentences = new ArrayList<Sentence>(annotated.size());
+		for (Tuple<String, List<Triple<String, String, String>>> sentence : annotated) {
+			sentences.add(new Sentence(sentence.first(), sentence.second()));
+		}
+		return sentences;
+	}
+
+	/*
+	 * Sentences of every paragraph starting at the given offsets, or null if
+	 * a sentence does not lie within one paragraph.
+	 */
+	private static List<List<Tuple<String, List<Triple<String, String, String>>>>> splitParagraphs(
+			List<CoreMap> sentences, List<Integer> starts, int count) {
+		List<List<Tuple<String, List<Triple<String, String, String>>>>> paragraphs = new ArrayList<List<Tuple<String, List<Triple<String, String, String>>>>>(
+				count);
+		for (int i = 0; i < count; i++) {
+			paragraphs.add(new ArrayList<Tuple<String, List<Triple<String, String, String>>>>());
+		}
+
+		int paragraph = 0;
+		for (CoreMap coreMap : sentences) {
+			List<CoreLabel> labels = coreMap.get(TokensAnnotation.class);
+			int begin = labels.get(0).get(CharacterOffsetBeginAnnotation.class);
+			int end = labels.get(labels.size() - 1).get(CharacterOffsetEndAnnotation.class);
+			while (paragraph + 1 < count && begin >= starts.get(paragraph + 1)) {
+				paragraph++;
+			}
+			if (begin < starts.get(paragraph)
+					|| (paragraph + 1 < count && end > starts.get(paragraph + 1))) {
+				return null;
+			}
+			paragraphs.get(paragraph).add(new Tuple<String, List<Triple<String, String, String>>>(
+					coreMap.toString(), Collections.unmodifiableList(tokens(coreMap))));
+		}
+		return paragraphs;
+	}
+
+	private List<Tuple<String, List<Triple<String, String, String>>>> annotateParagraph(
+			String paragraphText) {
+		Annotation paragraph = new Annotation(paragraphText);
+		pipelines.annotate(paragraph);
+
+		List<Tuple<String, List<Triple<String, String, String>>>> sentences = new ArrayList<Tuple<String, List<Triple<String, String, String>>>>();
+		for (CoreMap coreMap : paragraph.get(SentencesAnnotation.class)) {
+			sentences.add(new Tuple<String, List<Triple<String, String, String>>>(
+					coreMap.toString(), Collections.unmodifiableList(tokens(coreMap))));
+		}
+		return sentences;
+	}
+
 	/**
 	 * Convert paragraph into sentences.
 	 * 
 	 * @param paragraphText
 	 *            Paragraph text
-	 * @return List of sentence (string) in paragraph.
+	 * @return List of sentence (string) in paragraph. The list is shared and
+	 *         cannot be modified.
 	 */
 	public List<String> ParagraphToSentences(String paragraphText) {
+		List<String> sentences = sentenceCache.get(paragraphText);
+		if (sentences == null) {
+			sentences = Collections.unmodifiableList(splitSentences(paragraphText));
+			sentenceCache.put(paragraphText, sentences);
+		}
+		return sentences;
+	}
+
+	private List<String> splitSentences(String paragraphText) {
 		Annotation paragraph = new Annotation(paragraphText);
 		List<String> sentences = new LinkedList<String>();
 
-		this.pipeline.annotate(paragraph);
+		pipelines.annotate(paragraph);
 		List<CoreMap> sentence = paragraph.get(SentencesAnnotation.class);
 
 		for (CoreMap coreMap : sentence) {
@@ -83,30 +434,65 @@ public class StanfordProcessor {
 		return sentences;
 	}
 
+	/**
+	 * Hit, miss and eviction counts of the annotation caches.
+	 */
+	public String getCacheStatistics() {
+		return lemmaCache + System.lineSeparator() + lineLemmaCache
+				+ System.lineSeparator() + tokenCache
+				+ System.lineSeparator() + sentenceCache
+				+ System.lineSeparator() + paragraphCache;
+	}
+
+	/**
+	 * Number of pipelines in use and the time callers waited for one.
+	 */
+	public String getPoolStatistics() {
+		return pipelines + System.lineSeparator() + linePipelines
+				+ System.lineSeparator() + paragraphPipelines;
+	}
+
+	public void clearCaches() {
+		lemmaCache.clear();
+		lineLemmaCache.clear();
+		tokenCache.clear();
+		sentenceCache.clear();
+		paragraphCache.clear();
+	}
+
+	/* Created by the class loader on first use, without holding a monitor */
+	private static class Holder {
+		static final StanfordProcessor INSTANCE = new StanfordProcessor();
+	}
+
 	public static StanfordProcessor getInstance() {
-		if (instance == null) {
-			instance = new StanfordProcessor();
-		}
-		return instance;
+		return Holder.INSTANCE;
 	}
 
 	public String compareLemmatisedString(String string1, String string2) {
 
-		ERTagger.LOGGER.finest(String.format(
-				"Comparing [%s] and [%s] with their lemmatized names.",
-				string1, string2));
+		boolean trace = ERTagger.LOGGER.isLoggable(Level.FINEST);
+		if (trace) {
+			ERTagger.LOGGER.finest(String.format(
+					"Comparing [%s] and [%s] with their lemmatized names.",
+					string1, string2));
+		}
 
 		String lemmaString1 = lemmatiseString(string1);
 		String lemmaString2 = lemmatiseString(string2);
 
 		if (lemmaString1.compareTo(lemmaString2) == 0) {
-			ERTagger.LOGGER.finest(String.format(
-					"Lemmatized Names are same. [%s]", lemmaString1));
+			if (trace) {
+				ERTagger.LOGGER.finest(String.format(
+						"Lemmatized Names are same. [%s]", lemmaString1));
+			}
 			return lemmaString1;
 		} else {
-			ERTagger.LOGGER.finest(String.format(
-					"Lemmatized Names are not same. [%s] and [%s]",
-					lemmaString1, lemmaString2));
+			if (trace) {
+				ERTagger.LOGGER.finest(String.format(
+						"Lemmatized Names are not same. [%s] and [%s]",
+						lemmaString1, lemmaString2));
+			}
 			return null;
 		}
 	}
@@ -3,52 +3,47 @@ package nlp.processing;
 import java.io.BufferedReader;
 import java.io.FileReader;
 import java.io.IOException;
-import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.RandomAccess;
+import java.util.Set;
 
 import nlp.objects.Sentence;
 import nlp.objects.Sentences;
 import nlp.objects.Word;
 
-/*Singleton object*/
+/*Singleton object, loaded when the class is first used*/
 public class Stopwords {
 	
-	private static Stopwords instance;
-	private final String filePath = "data//Stopwords.csv";
-	private List<String> words;
+	public static final String FILE_PATH = "data//Stopwords.csv";
+	private static final Stopwords instance = new Stopwords();
+
+	/* Never modified once loaded, so safe to read from any thread */
+	private final Set<String> words;
 	
 	private Stopwords() {
-		BufferedReader br;
-		List<String> lines = new ArrayList<String>();
+		Set<String> words = new HashSet<String>();
 		
-		/*Read all the lines from the input file*/
-		try {
-			br = new BufferedReader(new FileReader(filePath));
+		/*Add all the words from every line of the input file*/
+		try (BufferedReader br = new BufferedReader(new FileReader(FILE_PATH))) {
 			String nextLine = null;
 			while (( nextLine = br.readLine()) != null) {
-				lines.add(nextLine);
-			}
-			
-			/*Add all the words from a line to the list*/
-			words = new ArrayList<String>();
-			for (String line : lines) {
-				words.addAll(Arrays.asList(line.split(",")));
+				words.addAll(Arrays.asList(nextLine.split(",")));
 			}
 		}
 		catch (IOException ioe) {
 			ioe.printStackTrace(System.err);
 			System.err.println("IO Exception thrown while loading the stopwrods file. Continuing with out stopwords.");
-			words = new ArrayList<String>();
+			words.clear();
 		}
 		
-		
+		this.words = Collections.unmodifiableSet(words);
 	}
 	
 	public static Stopwords getInstance() {
-		if (instance == null) {
-			instance = new Stopwords();
-		}
 		return instance;
 	}
 	
@@ -66,22 +61,27 @@ public class Stopwords {
 			removeStopwords(sentence);
 		}
 	}
+
+	/* Removes the stop words in a single pass over the tokens */
 	private void removeStopwords(Sentence sentence) {
 		List<Word> tokens = sentence.getTokens();
-		int length = tokens.size();
 		
-		for (int i = 0 ; i < length; i++) {
-			Word currentWord = tokens.get(i);
-			if (Stopwords.getInstance().contains(currentWord.getName().toLowerCase()) == true) {
-				tokens.remove(i);
-				length--;
-				/*for(int j = i; j < length; j++) {
-					Word word = tokens.get(j);
-					word.setId(word.getId() - 1);
-					tokens.set(j, word);
-				}*/
-				i--;
-				
+		if (tokens instanceof RandomAccess) {
+			/* Move the kept words to the front, then cut off the rest */
+			int kept = 0;
+			for (int i = 0; i < tokens.size(); i++) {
+				Word currentWord = tokens.get(i);
+				if (contains(currentWord.getName().toLowerCase()) == false) {
+					tokens.set(kept++, currentWord);
+				}
+			}
+			tokens.subList(kept, tokens.size()).clear();
+		}
+		else {
+			for (Iterator<Word> iterator = tokens.iterator(); iterator.hasNext();) {
+				if (contains(iterator.next().getName().toLowerCase()) == true) {
+					iterator.remove();
+				}
 			}
 		}
 		sentence.setTokens(tokens);
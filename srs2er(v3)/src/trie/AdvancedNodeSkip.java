@@ -14,7 +14,7 @@ public class AdvancedNodeSkip {
 		Queue<Tuple<Node, Integer>> untraversedNodes = new LinkedList<Tuple<Node, Integer>>();
 
 		/* Initial Seed */
-		for (Node node : trie.Root) {
+		for (Node node : trie.getRoot()) {
 			untraversedNodes.add(new Tuple<Node, Integer>(node, 0));
 		}
 
@@ -0,0 +1,302 @@
+package trie;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import nlp.objects.TagDataLoader.TagType;
+
+/**
+ * Children of a trie node (or the roots of the trie), indexed by TagType.
+ *
+ * Few children are kept in a small open addressed table keyed by the TagType
+ * ordinal. Once a node has more than SPARSE_LIMIT children the table turns
+ * into a dense array with one slot per TagType. Tags that are not a known
+ * TagType (punctuation) are kept aside and compared as strings.
+ *
+ * The first child of every tag family (first two characters of the tag) is
+ * remembered as well, so that a family match is a single array access too.
+ * Insertion order is kept for iteration.
+ */
+class ChildTable {
+
+	private static final int TAG_COUNT = TagType.values().length;
+	private static final int SPARSE_LIMIT = 8;
+
+	/* Family id of each TagType ordinal, -1 for UNKNOWN */
+	private static final int[] FAMILY_OF;
+	private static final Map<String, Integer> FAMILY_IDS = new HashMap<String, Integer>();
+
+	static {
+		FAMILY_OF = new int[TAG_COUNT];
+		for (TagType type : TagType.values()) {
+			if (type == TagType.UNKNOWN) {
+				FAMILY_OF[type.ordinal()] = -1;
+				continue;
+			}
+			String family = type.name().substring(0, 2);
+			Integer id = FAMILY_IDS.get(family);
+			if (id == null) {
+				id = FAMILY_IDS.size();
+				FAMILY_IDS.put(family, id);
+			}
+			FAMILY_OF[type.ordinal()] = id;
+		}
+	}
+
+	private final List<Node> children = new ArrayList<Node>();
+	private final List<Node> view = Collections.unmodifiableList(children);
+
+	/* Sparse table: keys are ordinal + 1, 0 is an empty slot */
+	private byte[] keys;
+	private Node[] slots;
+
+	/* Dense table, replaces the sparse one once it gets crowded */
+	private Node[] dense;
+
+	private Node[] familyFirst;
+
+	/* Children whose tag is not a known TagType */
+	private List<Node> unknown;
+
+	void add(Node child) {
+		children.add(child);
+
+		TagType type = child.getTagType();
+		if (type == TagType.UNKNOWN) {
+			if (unknown == null) {
+				unknown = new ArrayList<Node>(2);
+			}
+			unknown.add(child);
+		} else {
+			put(type.ordinal(), child);
+		}
+
+		int family = familyOf(type, child.getTag());
+		if (family >= 0) {
+			if (familyFirst == null) {
+				familyFirst = new Node[FAMILY_IDS.size()];
+			}
+			if (familyFirst[family] == null) {
+				familyFirst[family] = child;
+			}
+		}
+	}
+
+	/**
+	 * Child with exactly the same tag.
+	 *
+	 * @param type
+	 *            TagType of the tag
+	 * @param tag
+	 *            The tag itself. Only compared when type is UNKNOWN.
+	 * @return matching child or null
+	 */
+	Node get(TagType type, String tag) {
+		if (type != TagType.UNKNOWN) {
+			return get(type.ordinal());
+		}
+		if (unknown != null) {
+			for (Node node : unknown) {
+				if (node.getTag().equals(tag)) {
+					return node;
+				}
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * First child (in insertion order) whose tag belongs to the same family,
+	 * i.e. starts with the same two characters.
+	 */
+	Node getFamily(TagType type, String tag) {
+		if (type != TagType.UNKNOWN) {
+			return familyFirst == null ? null : familyFirst[FAMILY_OF[type.ordinal()]];
+		}
+		/* Unknown tags are rare, compare them the old way */
+		if (tag.length() < 2) {
+			return null;
+		}
+		for (Node node : children) {
+			String other = node.getTag();
+			if (other.length() >= 2 && other.charAt(0) == tag.charAt(0)
+					&& other.charAt(1) == tag.charAt(1)) {
+				return node;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * @return true if both known TagTypes are in the same family. UNKNOWN is
+	 *         in no family.
+	 */
+	static boolean sameFamily(TagType first, TagType second) {
+		int family = FAMILY_OF[first.ordinal()];
+		return family >= 0 && family == FAMILY_OF[second.ordinal()];
+	}
+
+	/* Approximate heap size, see FrozenTrie.estimateObjectBytes */
+	long estimateBytes() {
+		long bytes = FrozenTrie.align(FrozenTrie.HEADER + 7 * FrozenTrie.REFERENCE);
+		/* ArrayList with its array, and the unmodifiable view */
+		bytes += FrozenTrie.align(FrozenTrie.HEADER + 8 + FrozenTrie.REFERENCE)
+				+ FrozenTrie.array(children.size(), FrozenTrie.REFERENCE);
+		bytes += FrozenTrie.align(FrozenTrie.HEADER + 2 * FrozenTrie.REFERENCE);
+		if (keys != null) {
+			bytes += FrozenTrie.array(keys.length, 1)
+					+ FrozenTrie.array(slots.length, FrozenTrie.REFERENCE);
+		}
+		if (dense != null) {
+			bytes += FrozenTrie.array(dense.length, FrozenTrie.REFERENCE);
+		}
+		if (familyFirst != null) {
+			bytes += FrozenTrie.array(familyFirst.length, FrozenTrie.REFERENCE);
+		}
+		return bytes;
+	}
+
+	/**
+	 * @return a table with the same children, that can be changed without
+	 *         changing this one
+	 */
+	ChildTable copy() {
+		ChildTable copy = new ChildTable();
+		for (Node child : children) {
+			copy.add(child);
+		}
+		return copy;
+	}
+
+	/**
+	 * Puts the replacement in every place of the child, keeping its position.
+	 */
+	void replace(Node child, Node replacement) {
+		for (int i = 0; i < children.size(); i++) {
+			if (children.get(i) == child) {
+				children.set(i, replacement);
+			}
+		}
+		replace(slots, child, replacement);
+		replace(dense, child, replacement);
+		replace(familyFirst, child, replacement);
+		if (unknown != null) {
+			for (int i = 0; i < unknown.size(); i++) {
+				if (unknown.get(i) == child) {
+					unknown.set(i, replacement);
+				}
+			}
+		}
+	}
+
+	private static void replace(Node[] nodes, Node child, Node replacement) {
+		if (nodes != null) {
+			for (int i = 0; i < nodes.length; i++) {
+				if (nodes[i] == child) {
+					nodes[i] = replacement;
+				}
+			}
+		}
+	}
+
+	List<Node> asList() {
+		return view;
+	}
+
+	int size() {
+		return children.size();
+	}
+
+	boolean isEmpty() {
+		return children.isEmpty();
+	}
+
+	private Node get(int ordinal) {
+		if (dense != null) {
+			return dense[ordinal];
+		}
+		if (keys == null) {
+			return null;
+		}
+		int mask = keys.length - 1;
+		for (int i = ordinal & mask;; i = (i + 1) & mask) {
+			if (keys[i] == 0) {
+				return null;
+			}
+			if (keys[i] == ordinal + 1) {
+				return slots[i];
+			}
+		}
+	}
+
+	private void put(int ordinal, Node child) {
+		if (dense != null) {
+			if (dense[ordinal] == null) {
+				dense[ordinal] = child;
+			}
+			return;
+		}
+		if (get(ordinal) != null) {
+			/* Keep the first one, as the linear search used to */
+			return;
+		}
+
+		int known = children.size() - (unknown == null ? 0 : unknown.size());
+		if (known > SPARSE_LIMIT) {
+			dense = new Node[TAG_COUNT];
+			for (int i = 0; i < keys.length; i++) {
+				if (keys[i] != 0) {
+					dense[keys[i] - 1] = slots[i];
+				}
+			}
+			dense[ordinal] = child;
+			keys = null;
+			slots = null;
+			return;
+		}
+
+		/* Keep the load factor at or below one half */
+		if (keys == null || known * 2 > keys.length) {
+			rehash(keys == null ? 4 : keys.length * 2);
+		}
+		insert(ordinal, child);
+	}
+
+	private void rehash(int capacity) {
+		byte[] oldKeys = keys;
+		Node[] oldSlots = slots;
+		keys = new byte[capacity];
+		slots = new Node[capacity];
+		if (oldKeys != null) {
+			for (int i = 0; i < oldKeys.length; i++) {
+				if (oldKeys[i] != 0) {
+					insert(oldKeys[i] - 1, oldSlots[i]);
+				}
+			}
+		}
+	}
+
+	private void insert(int ordinal, Node child) {
+		int mask = keys.length - 1;
+		int i = ordinal & mask;
+		while (keys[i] != 0) {
+			i = (i + 1) & mask;
+		}
+		keys[i] = (byte) (ordinal + 1);
+		slots[i] = child;
+	}
+
+	private static int familyOf(TagType type, String tag) {
+		if (type != TagType.UNKNOWN) {
+			return FAMILY_OF[type.ordinal()];
+		}
+		if (tag.length() < 2) {
+			return -1;
+		}
+		Integer id = FAMILY_IDS.get(tag.substring(0, 2));
+		return id == null ? -1 : id;
+	}
+}
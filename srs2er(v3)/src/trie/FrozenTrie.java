@@ -0,0 +1,529 @@
+package trie;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+
+import nlp.objects.TagDataLoader.TagType;
+
+/**
+ * Read only, array packed copy of a trained Trie.
+ *
+ * The children of every node are contiguous, node i has the children
+ * [childStart(i), childEnd(i)). They are followed by the descendants of each
+ * child in turn, so all descendants of a node are contiguous as well, see
+ * descendantsEnd. Node 0 is a virtual root whose children are the roots of
+ * the trie. Child offsets are kept relative to the node, so a subtree can be
+ * copied to another place as it is, see update.
+ *
+ * Every node knows the number of branches below it, i.e. of childless nodes,
+ * itself if it has no children. Branches are counted depth first in child
+ * order, like the SerialTrie branches.
+ *
+ * A tag is stored as one byte. Values below TAG_COUNT are TagType ordinals,
+ * larger values index the tags that are not a known TagType (punctuation),
+ * which are kept as strings in unknownTags.
+ *
+ * Words are not kept. They are only needed while training.
+ *
+ * Leaves replaced by update are dropped from the leaf array once they make up
+ * more than a quarter of it, so a trie that keeps being updated does not hold
+ * on to the leaves of the sentences it no longer ends with.
+ */
+public class FrozenTrie {
+
+	public static final int ROOT = 0;
+	public static final int NO_LEAF = -1;
+
+	private static final int TAG_COUNT = TagType.values().length;
+	private static final TagType[] TAG_TYPES = TagType.values();
+
+	private final byte[] tags;
+	/* childStart(i) - i */
+	private final int[] firstChild;
+	private final int[] childCount;
+	private final int[] branchCount;
+	private final float[] stopWordProbability;
+	private final int[] leafIndex;
+	private final LeafNode[] leaves;
+	private final String[] unknownTags;
+	/* Depth of the deepest node, the roots are at depth 1 */
+	private final int maxDepth;
+	/* Leaves no node refers to any more, see update */
+	private final int deadLeaves;
+
+	private FrozenTrie(Builder builder) {
+		int size = builder.size;
+		this.tags = Arrays.copyOf(builder.tags, size);
+		this.firstChild = Arrays.copyOf(builder.firstChild, size);
+		this.childCount = Arrays.copyOf(builder.childCount, size);
+		this.branchCount = Arrays.copyOf(builder.branchCount, size);
+		this.stopWordProbability = Arrays.copyOf(builder.stopWordProbability, size);
+		this.leafIndex = Arrays.copyOf(builder.leafIndex, size);
+		this.unknownTags = builder.unknownTags.toArray(new String[builder.unknownTags.size()]);
+		this.maxDepth = builder.maxDepth;
+
+		List<LeafNode> leaves = builder.leaves;
+		if (builder.deadLeaves * 4 > leaves.size()) {
+			leaves = compactLeaves(leaves, leafIndex);
+			this.deadLeaves = 0;
+		} else {
+			this.deadLeaves = builder.deadLeaves;
+		}
+		this.leaves = leaves.toArray(new LeafNode[leaves.size()]);
+	}
+
+	/*
+	 * Leaves the nodes refer to, in order of the nodes. The leaf indices are
+	 * changed to point into them.
+	 */
+	private static List<LeafNode> compactLeaves(List<LeafNode> leaves, int[] leafIndex) {
+		int[] remap = new int[leaves.size()];
+		Arrays.fill(remap, NO_LEAF);
+		List<LeafNode> live = new ArrayList<LeafNode>();
+		for (int i = 0; i < leafIndex.length; i++) {
+			int index = leafIndex[i];
+			if (index == NO_LEAF) {
+				continue;
+			}
+			if (remap[index] == NO_LEAF) {
+				remap[index] = live.size();
+				live.add(leaves.get(index));
+			}
+			leafIndex[i] = remap[index];
+		}
+		return live;
+	}
+
+	/**
+	 * Compile the trie into flat arrays. The trie is not modified, the leaf
+	 * information is shared with it.
+	 */
+	public static FrozenTrie freeze(Trie trie) {
+		Builder builder = new Builder(1024);
+		builder.addRoot();
+		builder.layout(ROOT, trie.getRoot(), 0);
+		return new FrozenTrie(builder);
+	}
+
+	/**
+	 * Frozen copy of a copy of the trie this one was frozen from, made by
+	 * Trie.withSentences. The copy shares the nodes the new sentences did not
+	 * go through, and keeps the children of every node in place, new children
+	 * come last. The subtrees of shared nodes are copied from this one as a
+	 * block, only the nodes that were copied or added are visited. The arrays
+	 * themselves are still copied, which is cheap next to a freeze. Leaves of
+	 * nodes that were given new ones are counted, and dropped once there are
+	 * too many. This one is not changed.
+	 *
+	 * @param previous
+	 *            The trie this one was frozen from
+	 * @param updated
+	 *            The copy with the new sentences
+	 */
+	public FrozenTrie update(Trie previous, Trie updated) {
+		Builder builder = new Builder(this);
+		builder.addRoot();
+		builder.update(this, ROOT, updated.getRoot(), previous.getRoot(), ROOT, 0);
+		return new FrozenTrie(builder);
+	}
+
+	/* Arrays that grow while the nodes are laid out */
+	private static final class Builder {
+		byte[] tags;
+		int[] firstChild;
+		int[] childCount;
+		int[] branchCount;
+		float[] stopWordProbability;
+		int[] leafIndex;
+		int size;
+
+		final List<LeafNode> leaves;
+		final Map<LeafNode, Integer> leafIds = new IdentityHashMap<LeafNode, Integer>();
+		final List<String> unknownTags;
+		int maxDepth;
+		int deadLeaves;
+
+		Builder(int capacity) {
+			allocate(capacity);
+			leaves = new ArrayList<LeafNode>();
+			unknownTags = new ArrayList<String>();
+		}
+
+		/* Starts with the leaves and tags of previous, copied nodes refer to them */
+		Builder(FrozenTrie previous) {
+			allocate(previous.size() + 64);
+			leaves = new ArrayList<LeafNode>(Arrays.asList(previous.leaves));
+			unknownTags = new ArrayList<String>(Arrays.asList(previous.unknownTags));
+			maxDepth = previous.maxDepth;
+			deadLeaves = previous.deadLeaves;
+		}
+
+		private void allocate(int capacity) {
+			tags = new byte[capacity];
+			firstChild = new int[capacity];
+			childCount = new int[capacity];
+			branchCount = new int[capacity];
+			stopWordProbability = new float[capacity];
+			leafIndex = new int[capacity];
+		}
+
+		/* Index of the first of count new nodes */
+		int reserve(int count) {
+			if (size + count > tags.length) {
+				int capacity = Math.max(tags.length * 2, size + count);
+				tags = Arrays.copyOf(tags, capacity);
+				firstChild = Arrays.copyOf(firstChild, capacity);
+				childCount = Arrays.copyOf(childCount, capacity);
+				branchCount = Arrays.copyOf(branchCount, capacity);
+				stopWordProbability = Arrays.copyOf(stopWordProbability, capacity);
+				leafIndex = Arrays.copyOf(leafIndex, capacity);
+			}
+			int start = size;
+			size += count;
+			return start;
+		}
+
+		void addRoot() {
+			reserve(1);
+			tags[ROOT] = (byte) TagType.UNKNOWN.ordinal();
+			leafIndex[ROOT] = NO_LEAF;
+		}
+
+		/* Sets the children of parent and lays out their descendants */
+		void layout(int parent, List<Node> children, int depth) {
+			int start = startChildren(parent, children.size(), depth);
+			for (int i = 0; i < children.size(); i++) {
+				set(start + i, children.get(i), NO_LEAF);
+			}
+			int branches = 0;
+			for (int i = 0; i < children.size(); i++) {
+				layout(start + i, children.get(i).getChildren(), depth + 1);
+				branches += branchCount[start + i];
+			}
+			if (children.isEmpty() == false) {
+				branchCount[parent] = branches;
+			}
+		}
+
+		/*
+		 * Like layout, but the children of the node oldParent of previous
+		 * are the counterparts of the children, by position.
+		 */
+		void update(FrozenTrie previous, int parent, List<Node> children,
+				List<Node> oldChildren, int oldParent, int depth) {
+			int start = startChildren(parent, children.size(), depth);
+			int oldStart = previous.childStart(oldParent);
+			for (int i = 0; i < children.size(); i++) {
+				Node child = children.get(i);
+				if (i < oldChildren.size() && child == oldChildren.get(i)) {
+					copy(previous, oldStart + i, start + i);
+				} else {
+					int oldLeaf = i < oldChildren.size() ? previous.leafIndex[oldStart + i] : NO_LEAF;
+					set(start + i, child, oldLeaf);
+				}
+			}
+
+			int branches = 0;
+			for (int i = 0; i < children.size(); i++) {
+				Node child = children.get(i);
+				int index = start + i;
+				if (i < oldChildren.size() && child == oldChildren.get(i)) {
+					copyDescendants(previous, oldStart + i, index);
+				} else if (i < oldChildren.size()) {
+					update(previous, index, child.getChildren(),
+							oldChildren.get(i).getChildren(), oldStart + i, depth + 1);
+				} else {
+					layout(index, child.getChildren(), depth + 1);
+				}
+				branches += branchCount[index];
+			}
+			if (children.isEmpty() == false) {
+				branchCount[parent] = branches;
+			}
+		}
+
+		private int startChildren(int parent, int count, int depth) {
+			int start = reserve(count);
+			firstChild[parent] = start - parent;
+			childCount[parent] = count;
+			if (count == 0) {
+				/* A branch ends here, unless the trie is empty */
+				branchCount[parent] = parent == ROOT ? 0 : 1;
+				maxDepth = Math.max(maxDepth, depth);
+			}
+			return start;
+		}
+
+		/*
+		 * Node from the trie. oldLeaf is the leaf of its counterpart in the
+		 * previous trie, kept if the node still has the same. Every leaf
+		 * belongs to one node, so a leaf that is not kept is dead.
+		 */
+		private void set(int index, Node node, int oldLeaf) {
+			tags[index] = encodeTag(node.getTagType(), node.getTag(), unknownTags);
+			stopWordProbability[index] = node.getIsStopWordProbability().floatValue();
+
+			LeafNode leaf = node.getLeafInformation();
+			if (oldLeaf != NO_LEAF && leaves.get(oldLeaf) != leaf) {
+				deadLeaves++;
+			}
+			if (leaf == null) {
+				leafIndex[index] = NO_LEAF;
+			} else if (oldLeaf != NO_LEAF && leaves.get(oldLeaf) == leaf) {
+				leafIndex[index] = oldLeaf;
+			} else {
+				Integer id = leafIds.get(leaf);
+				if (id == null) {
+					id = leaves.size();
+					leaves.add(leaf);
+					leafIds.put(leaf, id);
+				}
+				leafIndex[index] = id;
+			}
+		}
+
+		/* Node of the previous trie, without its descendants */
+		private void copy(FrozenTrie previous, int oldNode, int index) {
+			tags[index] = previous.tags[oldNode];
+			stopWordProbability[index] = previous.stopWordProbability[oldNode];
+			leafIndex[index] = previous.leafIndex[oldNode];
+			branchCount[index] = previous.branchCount[oldNode];
+		}
+
+		private void copyDescendants(FrozenTrie previous, int oldNode, int index) {
+			int from = previous.childStart(oldNode);
+			int length = previous.descendantsEnd(oldNode) - from;
+			int to = reserve(length);
+			firstChild[index] = to - index;
+			childCount[index] = previous.childCount[oldNode];
+
+			System.arraycopy(previous.tags, from, tags, to, length);
+			System.arraycopy(previous.firstChild, from, firstChild, to, length);
+			System.arraycopy(previous.childCount, from, childCount, to, length);
+			System.arraycopy(previous.branchCount, from, branchCount, to, length);
+			System.arraycopy(previous.stopWordProbability, from, stopWordProbability, to, length);
+			System.arraycopy(previous.leafIndex, from, leafIndex, to, length);
+		}
+	}
+
+	private static byte encodeTag(TagType type, String tag,
+			List<String> unknownTags) {
+		if (type != TagType.UNKNOWN) {
+			return (byte) type.ordinal();
+		}
+		int index = unknownTags.indexOf(tag);
+		if (index < 0) {
+			index = unknownTags.size();
+			unknownTags.add(tag);
+		}
+		if (TAG_COUNT + index > Byte.MAX_VALUE) {
+			throw new IllegalStateException("Too many unknown tags in trie: "
+					+ unknownTags);
+		}
+		return (byte) (TAG_COUNT + index);
+	}
+
+	/*
+	 * ------------------------------------------------------------------------
+	 * ACCESSORS
+	 * ------------------------------------------------------------------------
+	 */
+
+	public int size() {
+		return tags.length;
+	}
+
+	public int childStart(int node) {
+		return node + firstChild[node];
+	}
+
+	public int childEnd(int node) {
+		return node + firstChild[node] + childCount[node];
+	}
+
+	public boolean isLeaf(int node) {
+		return childCount[node] == 0;
+	}
+
+	/**
+	 * @return end of the nodes below the node, which start at childStart
+	 */
+	public int descendantsEnd(int node) {
+		while (childCount[node] > 0) {
+			node = childEnd(node) - 1;
+		}
+		return childStart(node);
+	}
+
+	/**
+	 * @return number of childless nodes below the node, 1 for a childless
+	 *         node itself
+	 */
+	public int branchCount(int node) {
+		return branchCount[node];
+	}
+
+	/**
+	 * @return depth of the deepest node, the roots are at depth 1
+	 */
+	public int maxDepth() {
+		return maxDepth;
+	}
+
+	/**
+	 * @return TagType ordinal of the node, UNKNOWN for tags that are not a
+	 *         TagType.
+	 */
+	public int tagOrdinal(int node) {
+		int tag = tags[node];
+		return tag < TAG_COUNT ? tag : TagType.UNKNOWN.ordinal();
+	}
+
+	public TagType tagType(int node) {
+		return TAG_TYPES[tagOrdinal(node)];
+	}
+
+	public String tag(int node) {
+		int tag = tags[node];
+		return tag < TAG_COUNT ? TAG_TYPES[tag].name() : unknownTags[tag
+				- TAG_COUNT];
+	}
+
+	public float stopWordProbability(int node) {
+		return stopWordProbability[node];
+	}
+
+	/**
+	 * @return the leaf information of the node, or null
+	 */
+	public LeafNode leaf(int node) {
+		int index = leafIndex[node];
+		return index == NO_LEAF ? null : leaves[index];
+	}
+
+	/**
+	 * Child with exactly the same tag.
+	 *
+	 * @return child node or -1
+	 */
+	public int findChild(int parent, TagType type, String post) {
+		int end = childEnd(parent);
+		if (type != TagType.UNKNOWN) {
+			byte ordinal = (byte) type.ordinal();
+			for (int i = childStart(parent); i < end; i++) {
+				if (tags[i] == ordinal) {
+					return i;
+				}
+			}
+			return -1;
+		}
+		for (int i = childStart(parent); i < end; i++) {
+			if (tags[i] >= TAG_COUNT && tag(i).equals(post)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * First child whose tag starts with the same two characters.
+	 *
+	 * @return child node or -1
+	 */
+	public int findFamilyChild(int parent, TagType type, String post) {
+		int end = childEnd(parent);
+		for (int i = childStart(parent); i < end; i++) {
+			if (sameFamily(i, type, post)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	private boolean sameFamily(int node, TagType type, String post) {
+		if (tags[node] < TAG_COUNT && type != TagType.UNKNOWN) {
+			return ChildTable.sameFamily(TAG_TYPES[tags[node]], type);
+		}
+		String tag = tag(node);
+		return tag.length() >= 2 && post.length() >= 2
+				&& tag.charAt(0) == post.charAt(0)
+				&& tag.charAt(1) == post.charAt(1);
+	}
+
+	/*
+	 * ------------------------------------------------------------------------
+	 * MEMORY FOOTPRINT
+	 * ------------------------------------------------------------------------
+	 */
+
+	/* Sizes for a 64 bit JVM with compressed references */
+	static final int HEADER = 12;
+	static final int ARRAY_HEADER = 16;
+	static final int REFERENCE = 4;
+
+	static long align(long bytes) {
+		return (bytes + 7) & ~7L;
+	}
+
+	static long array(long length, int elementSize) {
+		return align(ARRAY_HEADER + length * elementSize);
+	}
+
+	static long string(String string) {
+		return align(HEADER + REFERENCE + 4 + 4) + array(string.length(), 2);
+	}
+
+	/**
+	 * Approximate heap size of the arrays. Leaf information is shared with the
+	 * object trie and not counted.
+	 */
+	public long estimateBytes() {
+		long bytes = align(HEADER + 8 * REFERENCE + 2 * 4);
+		bytes += array(tags.length, 1);
+		bytes += array(firstChild.length, 4);
+		bytes += array(childCount.length, 4);
+		bytes += array(branchCount.length, 4);
+		bytes += array(stopWordProbability.length, 4);
+		bytes += array(leafIndex.length, 4);
+		bytes += array(leaves.length, REFERENCE);
+		bytes += array(unknownTags.length, REFERENCE);
+		return bytes;
+	}
+
+	/**
+	 * Approximate heap size of the object trie, without the leaf information.
+	 *
+	 * @param trie
+	 *            The trie to measure
+	 * @param withWords
+	 *            Count the words kept in every node as well
+	 */
+	public static long estimateObjectBytes(Trie trie, boolean withWords) {
+		long bytes = align(HEADER + 2 * REFERENCE) + trie.Root.estimateBytes();
+		Queue<Node> queue = new ArrayDeque<Node>(trie.getRoot());
+		while (queue.isEmpty() == false) {
+			Node node = queue.poll();
+			queue.addAll(node.getChildren());
+
+			bytes += align(HEADER + 7 * REFERENCE); /* Node */
+			bytes += align(HEADER + 8); /* Double */
+			bytes += string(node.getTag());
+			bytes += node.getChildTable().estimateBytes();
+
+			/* ArrayList of words */
+			bytes += align(HEADER + 4 + 4 + REFERENCE);
+			bytes += array(node.getWords().size(), REFERENCE);
+			if (withWords) {
+				for (String word : node.getWords()) {
+					bytes += string(word);
+				}
+			}
+		}
+		return bytes;
+	}
+}
@@ -3,10 +3,12 @@ package trie;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.logging.Level;
 
 import erTagger.ERTagger;
 import nlp.objects.Attribute;
@@ -16,8 +18,11 @@ import nlp.objects.RelationEntity;
 import nlp.objects.Relationship;
 import nlp.objects.Sentence;
 import nlp.objects.Word;
+import nlp.objects.TagDataLoader.TagType;
 import util.Name;
 import util.Tuple;
+import util.metrics.Histogram;
+import util.metrics.Metrics;
 
 /**
  * All the lookup algorithms and functions
@@ -31,17 +36,37 @@ public class Lookup {
 	private static final Integer FAMILY_SAME = 25;
 	private static final Integer DIFFERENT = 50;
 
+	private static final Histogram LOOKUP = Metrics.getInstance().histogram("lookup.trie");
+	private static final Histogram PROCESS = Metrics.getInstance().histogram("model.process");
+
+	/* Constant messages only, build others under ERTagger.LOOKUP_TRACE.isLoggable */
+	private static void trace(Level level, String message) {
+		if (ERTagger.LOOKUP_TRACE.isLoggable(level)) {
+			ERTagger.LOOKUP_TRACE.log(level, message);
+		}
+	}
+
 	public static LeafNode lookup(Trie trie, Sentence sentence,
 			Tuple<Integer, Integer> cost) {
+		long start = System.nanoTime();
+		try {
+			return search(trie, sentence, cost);
+		} finally {
+			LOOKUP.recordSince(start);
+		}
+	}
+
+	private static LeafNode search(Trie trie, Sentence sentence,
+			Tuple<Integer, Integer> cost) {
 
 		LeafNode leaf = strictMatch(trie, sentence);
 		if (leaf == null) {
-			ERTagger.LOGGER.warning("Exact not match found.");
+			trace(Level.WARNING, "Exact not match found.");
 		} else {
 			/*Leaf is not null*/
 			if (leaf.getDataModel() == null) {
-				ERTagger.LOGGER
-						.warning("Exact Match Found but Data Model is not present at this level.");
+				trace(Level.WARNING,
+						"Exact Match Found but Data Model is not present at this level.");
 			}
 			else {
 				return leaf;
@@ -49,7 +74,7 @@ public class Lookup {
 
 		}
 		/*Exact match not found*/
-		ERTagger.LOGGER.info("Applying AdvancedLookup Algorithm");
+		trace(Level.INFO, "Applying AdvancedLookup Algorithm");
 		advancedLookupPrettyPrint(sentence, advancedLookup(trie, sentence, cost));
 		
 		return null;
@@ -58,14 +83,16 @@ public class Lookup {
 	private static LeafNode strictMatch(Trie trie, Sentence sentence) {
 
 		Tuple<Node, Integer> base = searchList(trie.Root, sentence.getTokens()
-				.get(0).getPost());
+				.get(0));
 
 		if (base.second == EXACTLY_SAME) {
 			return searchRemaining(base.first(), sentence);
 		} else if (base.second == FAMILY_SAME) {
-			ERTagger.LOGGER.config(String.format(
-					"Lookup: [%s] matched in family. WordIndex = 0", sentence
-							.getTokens().get(0).getPost()));
+			if (ERTagger.LOOKUP_TRACE.isLoggable(Level.CONFIG)) {
+				ERTagger.LOOKUP_TRACE.log(Level.CONFIG, String.format(
+						"Lookup: [%s] matched in family. WordIndex = 0", sentence
+								.getTokens().get(0).getPost()));
+			}
 			return searchRemaining(base.first(), sentence);
 		} else {
 			return null;
@@ -79,23 +106,24 @@ public class Lookup {
 		while (tokenIterator.hasNext()) {
 			Word currentWord = tokenIterator.next();
 			Tuple<Node, Integer> searchResult = searchList(
-					parent.getChildren(), currentWord.getPost());
+					parent.getChildTable(), currentWord);
 
 			if (searchResult.second() == EXACTLY_SAME) {
 				parent = searchResult.first();
 			} else if (searchResult.second == FAMILY_SAME) {
-				ERTagger.LOGGER.config(String.format(
-						"Lookup: %s matched in family. WordIndex = %d",
-						currentWord.getPost(), currentWord.getId()));
+				if (ERTagger.LOOKUP_TRACE.isLoggable(Level.CONFIG)) {
+					ERTagger.LOOKUP_TRACE.log(Level.CONFIG, String.format(
+							"Lookup: %s matched in family. WordIndex = %d",
+							currentWord.getPost(), currentWord.getId()));
+				}
 				parent = searchResult.first();
 			} else {
-				ERTagger.LOGGER.config(String.format("Lookup Failed.",
-						sentence.getValue()));
-				ERTagger.LOGGER
-						.info(String
-								.format("Trying to match: [%s]. But parent has children: [%s]",
-										currentWord.toString(), parent
-												.getChildren().toString()));
+				trace(Level.CONFIG, "Lookup Failed.");
+				if (ERTagger.LOOKUP_TRACE.isLoggable(Level.INFO)) {
+					ERTagger.LOOKUP_TRACE.log(Level.INFO, String.format(
+							"Trying to match: [%s]. But parent has children: [%s]",
+							currentWord.toString(), parent.getChildren().toString()));
+				}
 				return null;
 			}
 
@@ -110,6 +138,7 @@ public class Lookup {
 	}
 
 	public static void processDataModel(Sentence sentence, Model model) {
+		long start = System.nanoTime();
 
 		for (Entity entity : model.getEntities()) {
 			entity.setName(Name.buildName(sentence.getTokens(),
@@ -128,30 +157,22 @@ public class Lookup {
 						.getLemmName());
 			}
 		}
+		PROCESS.recordSince(start);
 	}
 
-	private static Tuple<Node, Integer> searchList(List<Node> list, String post) {
+	private static Tuple<Node, Integer> searchList(ChildTable list, Word word) {
+		TagType type = word.getTag().getTagType();
 
 		/* Search for exact match */
-		Iterator<Node> itr = list.iterator();
-		while (itr.hasNext()) {
-			Node current = itr.next();
-			Integer differenceCost = CalculateTagDifferenceCost(
-					current.getTag(), post);
-			if (differenceCost <= EXACTLY_SAME) {
-				return new Tuple<Node, Integer>(current, EXACTLY_SAME);
-			}
+		Node current = list.get(type, word.getPost());
+		if (current != null) {
+			return new Tuple<Node, Integer>(current, EXACTLY_SAME);
 		}
 
 		/* Search for same family */
-		itr = list.iterator();
-		while (itr.hasNext()) {
-			Node current = itr.next();
-			Integer differenceCost = CalculateTagDifferenceCost(
-					current.getTag(), post);
-			if (differenceCost <= FAMILY_SAME) {
-				return new Tuple<Node, Integer>(current, FAMILY_SAME);
-			}
+		current = list.getFamily(type, word.getPost());
+		if (current != null) {
+			return new Tuple<Node, Integer>(current, FAMILY_SAME);
 		}
 
 		/* Tags are different */
@@ -159,6 +180,22 @@ public class Lookup {
 
 	}
 
+	/* Same as CalculateTagDifferenceCost, without comparing strings for known tags */
+	private static Integer CalculateTagDifferenceCost(Node node, Word word) {
+		TagType nodeType = node.getTagType();
+		TagType wordType = word.getTag().getTagType();
+		if (nodeType == TagType.UNKNOWN || wordType == TagType.UNKNOWN) {
+			return CalculateTagDifferenceCost(node.getTag(), word.getPost());
+		}
+		if (nodeType == wordType) {
+			return EXACTLY_SAME;
+		} else if (ChildTable.sameFamily(nodeType, wordType)) {
+			return FAMILY_SAME;
+		} else {
+			return DIFFERENT;
+		}
+	}
+
 	private static Integer CalculateTagDifferenceCost(String tag1, String tag2) {
 		if (tag1.compareTo(tag2) == 0) {
 			return EXACTLY_SAME;
@@ -183,12 +220,14 @@ public class Lookup {
 				processDataModel(sentence, node.getLeafInformation()
 						.getDataModel());
 				
-				ERTagger.LOGGER.info(String.format("Cost: %d Unmatched: %d",
-						cst.first(), cst.second()));
-				ERTagger.LOGGER.info(node.getLeafInformation().getDataModel()
-						.toString());
+				if (ERTagger.LOOKUP_TRACE.isLoggable(Level.INFO)) {
+					ERTagger.LOOKUP_TRACE.log(Level.INFO, String.format(
+							"Cost: %d Unmatched: %d", cst.first(), cst.second()));
+					ERTagger.LOOKUP_TRACE.log(Level.INFO, node.getLeafInformation()
+							.getDataModel().toString());
+				}
 			} catch (NullPointerException npe) {
-				ERTagger.LOGGER.fine("No leaf node found at this level.");
+				trace(Level.FINE, "No leaf node found at this level.");
 			}
 		}
 
@@ -204,9 +243,8 @@ public class Lookup {
 		/* Node, CostTillNow, Not Matched Node Count */
 		Map<Node, Tuple<Integer, Integer>> probablePaths = new HashMap<Node, Tuple<Integer, Integer>>();
 		Word rootWord = tokenItr.next();
-		for (Node node : trie.Root) {
-			Integer thisCost = CalculateTagDifferenceCost(node.getTag(),
-					rootWord.getPost());
+		for (Node node : trie.getRoot()) {
+			Integer thisCost = CalculateTagDifferenceCost(node, rootWord);
 			if (thisCost == DIFFERENT) {
 				probablePaths.put(node,
 						new Tuple<Integer, Integer>(thisCost, 1));
@@ -227,8 +265,8 @@ public class Lookup {
 					continue;
 				}
 				for (Node child : node.getChildren()) {
-					Integer childCost = CalculateTagDifferenceCost(
-							child.getTag(), currentWord.getPost());
+					Integer childCost = CalculateTagDifferenceCost(child,
+							currentWord);
 					if (childCost + costTillNow.first() <= cost.first()) {
 						if (childCost == DIFFERENT) {
 							probablePaths.put(
@@ -276,4 +314,187 @@ public class Lookup {
 		return null;
 	}
 
-}
+	/*
+	 * ------------------------------------------------------------------------
+	 * FROZEN TRIE LOOK UP FUNCTIONS
+	 * Same algorithms as above, running on the array packed trie.
+	 * ------------------------------------------------------------------------
+	 */
+
+	public static LeafNode lookup(FrozenTrie trie, Sentence sentence,
+			Tuple<Integer, Integer> cost) {
+		long start = System.nanoTime();
+		try {
+			return search(trie, sentence, cost);
+		} finally {
+			LOOKUP.recordSince(start);
+		}
+	}
+
+	private static LeafNode search(FrozenTrie trie, Sentence sentence,
+			Tuple<Integer, Integer> cost) {
+
+		LeafNode leaf = strictMatch(trie, sentence);
+		if (leaf == null) {
+			trace(Level.WARNING, "Exact not match found.");
+		} else {
+			/*Leaf is not null*/
+			if (leaf.getDataModel() == null) {
+				trace(Level.WARNING,
+						"Exact Match Found but Data Model is not present at this level.");
+			}
+			else {
+				return leaf;
+			}
+
+		}
+		/*Exact match not found*/
+		trace(Level.INFO, "Applying AdvancedLookup Algorithm");
+		advancedLookupPrettyPrint(trie, sentence, advancedLookup(trie, sentence, cost));
+
+		return null;
+	}
+
+	private static LeafNode strictMatch(FrozenTrie trie, Sentence sentence) {
+		Iterator<Word> tokenIterator = sentence.getTokens().iterator();
+
+		int parent = searchChildren(trie, FrozenTrie.ROOT, tokenIterator.next());
+		if (parent < 0) {
+			return null;
+		}
+
+		while (tokenIterator.hasNext()) {
+			Word currentWord = tokenIterator.next();
+			int found = searchChildren(trie, parent, currentWord);
+
+			if (found < 0) {
+				trace(Level.CONFIG, "Lookup Failed.");
+				if (ERTagger.LOOKUP_TRACE.isLoggable(Level.INFO)) {
+					ERTagger.LOOKUP_TRACE.log(Level.INFO, String.format(
+							"Trying to match: [%s]. But parent has children: [%s]",
+							currentWord.toString(), childrenToString(trie, parent)));
+				}
+				return null;
+			}
+			parent = found;
+		}
+
+		LeafNode leaf = trie.leaf(parent);
+		if (leaf != null) {
+			processDataModel(sentence, leaf.getDataModel());
+		}
+		return leaf;
+	}
+
+	/* Exact match first, then family match. -1 if tags are different */
+	private static int searchChildren(FrozenTrie trie, int parent, Word word) {
+		TagType type = word.getTag().getTagType();
+
+		int found = trie.findChild(parent, type, word.getPost());
+		if (found >= 0) {
+			return found;
+		}
+
+		found = trie.findFamilyChild(parent, type, word.getPost());
+		if (found >= 0 && ERTagger.LOOKUP_TRACE.isLoggable(Level.CONFIG)) {
+			ERTagger.LOOKUP_TRACE.log(Level.CONFIG, String.format(
+					"Lookup: %s matched in family. WordIndex = %d",
+					word.getPost(), word.getId()));
+		}
+		return found;
+	}
+
+	private static String childrenToString(FrozenTrie trie, int node) {
+		StringBuilder sb = new StringBuilder("[");
+		for (int i = trie.childStart(node); i < trie.childEnd(node); i++) {
+			if (i > trie.childStart(node)) {
+				sb.append(", ");
+			}
+			sb.append(trie.tag(i));
+		}
+		return sb.append("]").toString();
+	}
+
+	private static Integer CalculateTagDifferenceCost(FrozenTrie trie,
+			int node, Word word) {
+		TagType nodeType = trie.tagType(node);
+		TagType wordType = word.getTag().getTagType();
+		if (nodeType == TagType.UNKNOWN || wordType == TagType.UNKNOWN) {
+			return CalculateTagDifferenceCost(trie.tag(node), word.getPost());
+		}
+		if (nodeType == wordType) {
+			return EXACTLY_SAME;
+		} else if (ChildTable.sameFamily(nodeType, wordType)) {
+			return FAMILY_SAME;
+		} else {
+			return DIFFERENT;
+		}
+	}
+
+	private static void advancedLookupPrettyPrint(FrozenTrie trie,
+			Sentence sentence, Map<Integer, Tuple<Integer, Integer>> possibleNodes) {
+		for (Map.Entry<Integer, Tuple<Integer, Integer>> entry : possibleNodes
+				.entrySet()) {
+			LeafNode leaf = trie.leaf(entry.getKey());
+			if (leaf == null || leaf.getDataModel() == null) {
+				trace(Level.FINE, "No leaf node found at this level.");
+				continue;
+			}
+			Tuple<Integer, Integer> cst = entry.getValue();
+			processDataModel(sentence, leaf.getDataModel());
+
+			if (ERTagger.LOOKUP_TRACE.isLoggable(Level.INFO)) {
+				ERTagger.LOOKUP_TRACE.log(Level.INFO, String.format(
+						"Cost: %d Unmatched: %d", cst.first(), cst.second()));
+				ERTagger.LOOKUP_TRACE.log(Level.INFO, leaf.getDataModel().toString());
+			}
+		}
+	}
+
+	private static Map<Integer, Tuple<Integer, Integer>> advancedLookup(
+			FrozenTrie trie, Sentence sentence, Tuple<Integer, Integer> cost) {
+
+		Iterator<Word> tokenItr = sentence.getTokens().iterator();
+
+		/* Node, CostTillNow, Not Matched Node Count */
+		Map<Integer, Tuple<Integer, Integer>> probablePaths = new LinkedHashMap<Integer, Tuple<Integer, Integer>>();
+		Word rootWord = tokenItr.next();
+		for (int node = trie.childStart(FrozenTrie.ROOT); node < trie
+				.childEnd(FrozenTrie.ROOT); node++) {
+			Integer thisCost = CalculateTagDifferenceCost(trie, node, rootWord);
+			probablePaths.put(node, new Tuple<Integer, Integer>(thisCost,
+					thisCost == DIFFERENT ? 1 : 0));
+		}
+
+		while (tokenItr.hasNext()) {
+			Word currentWord = tokenItr.next();
+			Map<Integer, Tuple<Integer, Integer>> nextPaths = new LinkedHashMap<Integer, Tuple<Integer, Integer>>();
+
+			for (Map.Entry<Integer, Tuple<Integer, Integer>> entry : probablePaths
+					.entrySet()) {
+				int node = entry.getKey();
+				Tuple<Integer, Integer> costTillNow = entry.getValue();
+				if (trie.isLeaf(node)) {
+					/* Nothing to expand, stays a candidate */
+					nextPaths.put(node, costTillNow);
+					continue;
+				}
+				for (int child = trie.childStart(node); child < trie
+						.childEnd(node); child++) {
+					Integer childCost = CalculateTagDifferenceCost(trie,
+							child, currentWord);
+					if (childCost + costTillNow.first() <= cost.first()) {
+						nextPaths.put(child, new Tuple<Integer, Integer>(
+								childCost + costTillNow.first(),
+								costTillNow.second()
+										+ (childCost == DIFFERENT ? 1 : 0)));
+					}
+				}
+			}
+			probablePaths = nextPaths;
+		}
+
+		return probablePaths;
+	}
+
+}
\ No newline at end of file
@@ -2,11 +2,13 @@ package trie;
 
 import java.io.PrintStream;
 import java.util.ArrayList;
-import java.util.Iterator;
+import java.util.Collections;
 import java.util.List;
 
 import trie.Trie.PrintDetail;
 import nlp.objects.Model;
+import nlp.objects.Tag;
+import nlp.objects.TagDataLoader.TagType;
 import nlp.processing.Stopwords;
 
 /**
@@ -22,16 +24,26 @@ public class Node {
 
 	/* Cannot modify once new object is created */
 	private String Tag;
+	private TagType Type;
 	private Double IsStopWordProbability;
+	/* Number of the words that are stop words, the probability is taken from it */
+	private int StopWordCount;
 
 	public Double getIsStopWordProbability() {
 		return IsStopWordProbability;
 	}
 
-	private List<Node> Children;
+	private ChildTable Children;
 
 	private LeafNode LeafInformation;
 
+	/*
+	 * Lemma of the word the node was created for. The node keeps the word
+	 * itself, but a node that already exists is given the lemma. Needed to
+	 * merge tries, see Trie.merge.
+	 */
+	private String CreationLemma;
+
 	public LeafNode getLeafInformation() {
 		return LeafInformation;
 	}
@@ -53,30 +65,102 @@ public class Node {
 	}
 
 	public Node(String tag, String word) {
+		this(tag, new Tag(tag).getTagType(), word);
+	}
+
+	private Node(String tag, TagType type, String word) {
 		Words = new ArrayList<String>();
-		Children = new ArrayList<Node>();
+		Children = new ChildTable();
 		this.Tag = new String(tag);
+		this.Type = type;
 		IsStopWordProbability = new Double(0);
 
 		addWord(word);
 	}
 
+	/* The TagType of the tag is known already, e.g. from the word */
+	Node(String tag, TagType type, String word, String lemma) {
+		this(tag, type, word);
+		CreationLemma = lemma;
+	}
+
+	/**
+	 * Copy of the node that can be changed without changing the original. The
+	 * children and the leaf information are shared until they are replaced.
+	 */
+	Node(Node other) {
+		Words = new ArrayList<String>(other.Words);
+		Children = other.Children.copy();
+		this.Tag = other.Tag;
+		this.Type = other.Type;
+		IsStopWordProbability = other.IsStopWordProbability;
+		StopWordCount = other.StopWordCount;
+		LeafInformation = other.LeafInformation;
+		CreationLemma = other.CreationLemma;
+	}
+
+	/**
+	 * Restores a node from an exported trie. The stop word count is taken from
+	 * the stored probability instead of being re-evaluated for every word.
+	 * 
+	 * @param tag
+	 *            Part of speech tag of the node
+	 * @param words
+	 *            Words seen at this node, in insertion order
+	 * @param isStopWordProbability
+	 *            Probability stored at export time
+	 */
+	public Node(String tag, List<String> words, double isStopWordProbability) {
+		Words = new ArrayList<String>(words);
+		Children = new ChildTable();
+		this.Tag = tag;
+		this.Type = new Tag(tag).getTagType();
+		StopWordCount = (int) Math.round(isStopWordProbability * Words.size());
+		updateProbability();
+	}
+
 	public void addChild(Node child) {
 		Children.add(child);
 	}
 
 	public Node findChild(String post) {
-		Iterator<Node> itr = Children.iterator();
-		while (itr.hasNext()) {
-			Node current = itr.next();
-			if (current.getTag().compareTo(post) == 0) {
-				return current;
-			}
-		}
-		return null;
+		return Children.get(new Tag(post).getTagType(), post);
+	}
+
+	/**
+	 * Find the child with exactly the same tag. Constant time for known
+	 * TagTypes.
+	 * 
+	 * @param type
+	 *            TagType of the post
+	 * @param post
+	 *            Part of speech tag, compared only if type is UNKNOWN
+	 * @return child or null if not present
+	 */
+	public Node findChild(TagType type, String post) {
+		return Children.get(type, post);
 	}
 
+	/**
+	 * Find the first child whose tag is in the same family as the post.
+	 */
+	public Node findFamilyChild(TagType type, String post) {
+		return Children.getFamily(type, post);
+	}
+
+	/**
+	 * @return Children in insertion order. The list cannot be modified, use
+	 *         addChild instead.
+	 */
 	public List<Node> getChildren() {
+		return Children.asList();
+	}
+
+	String getCreationLemma() {
+		return CreationLemma;
+	}
+
+	ChildTable getChildTable() {
 		return Children;
 	}
 
@@ -84,15 +168,41 @@ public class Node {
 		return Tag;
 	}
 
-	public void addWord(String word) {
-		int wordCount = Words.size();
-		double old = IsStopWordProbability;
+	public TagType getTagType() {
+		return Type;
+	}
+
+	public List<String> getWords() {
+		return Collections.unmodifiableList(Words);
+	}
 
+	public void addWord(String word) {
 		Words.add(word);
+		if (Stopwords.getInstance().contains(word)) {
+			StopWordCount++;
+		}
+		updateProbability();
+	}
+
+	/**
+	 * Adds the words of a node of another trie, as if they were added one by
+	 * one. Its first word created the node, it is replaced by firstWord.
+	 */
+	void addWords(Node other, String firstWord) {
+		List<String> words = other.Words;
+		Words.add(firstWord);
+		Words.addAll(words.subList(1, words.size()));
+
+		Stopwords stopwords = Stopwords.getInstance();
+		StopWordCount += other.StopWordCount
+				- (stopwords.contains(words.get(0)) ? 1 : 0)
+				+ (stopwords.contains(firstWord) ? 1 : 0);
+		updateProbability();
+	}
 
-		/* Update probability */
-		IsStopWordProbability = (old * wordCount + (Stopwords.getInstance()
-				.contains(word) ? 1.0 : 0.0)) / Words.size();
+	private void updateProbability() {
+		IsStopWordProbability = Words.isEmpty() ? 0.0 : (double) StopWordCount
+				/ Words.size();
 	}
 
 	/**
@@ -126,7 +236,7 @@ public class Node {
 		for (int i = 0; i < Children.size(); i++) {
 			if (i > 0)
 				offsetToLevel(level, printer, printDetail);
-			Children.get(i).print(printer, printDetail, level);
+			Children.asList().get(i).print(printer, printDetail, level);
 		}
 	}
 
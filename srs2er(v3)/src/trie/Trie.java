@@ -3,9 +3,12 @@ package trie;
 import java.io.ByteArrayOutputStream;
 import java.io.PrintStream;
 import java.io.UnsupportedEncodingException;
-import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Set;
+import java.util.logging.Level;
 
 import erTagger.ERTagger;
 import nlp.objects.Sentence;
@@ -21,7 +24,7 @@ import nlp.objects.Word;
 public class Trie {
     /* Default print behavior to TAGS ONLY */
     private PrintDetail PrintBehavior = PrintDetail.TAGS_ONLY;
-    protected List<Node> Root;
+    protected ChildTable Root;
 
     public enum PrintDetail {
 	TAGS_ONLY, // prints only POST of the trie
@@ -30,15 +33,23 @@ public class Trie {
 	ALL_DETAILS
     };
 
+    /**
+     * @return The root nodes in insertion order. The list cannot be modified,
+     *         use addRoot instead.
+     */
     public List<Node> getRoot() {
-	return this.Root;
+	return this.Root.asList();
+    }
+
+    public void addRoot(Node node) {
+	Root.add(node);
     }
 
     /**
      * Default constructor. Initializes all the elements.
      */
     public Trie() {
-	Root = new ArrayList<Node>();
+	Root = new ChildTable();
     }
 
     /*
@@ -60,10 +71,22 @@ public class Trie {
 	 * exist already.
 	 */
 	for (Sentence sentence : trainingData.getSentence()) {
-	    ERTagger.LOGGER.finer(String.format("Inserting: [%s]",
-		    sentence.getValue()));
-	    insertIntoTrie(sentence);
+	    insert(sentence);
+	}
+    }
+
+    /**
+     * Insert a single sentence in the Trie.
+     * 
+     * @param sentence
+     *            The sentence to be added.
+     */
+    public void insert(Sentence sentence) {
+	if (ERTagger.TRIE_TRACE.isLoggable(Level.FINER)) {
+	    ERTagger.TRIE_TRACE.log(Level.FINER,
+		    String.format("Inserting: [%s]", sentence.getValue()));
 	}
+	insertIntoTrie(sentence);
     }
 
     /**
@@ -73,26 +96,18 @@ public class Trie {
      *            The sentence to be added.
      */
     private void insertIntoTrie(Sentence sentence) {
-	/* Search if the root contains */
-	Iterator<Node> rootIterator = Root.iterator();
-	Node parent = null;
-
 	/* Search if the the branch exists in root */
-	while (rootIterator.hasNext()) {
-	    Node current = rootIterator.next();
-	    if (current.getTag().compareTo(
-		    sentence.getTokens().get(0).getPost()) == 0) {
-		parent = current;
-		break;
-	    }
-	}
+	Word firstWord = sentence.getTokens().get(0);
+	Node parent = Root.get(firstWord.getTag().getTagType(),
+		firstWord.getPost());
 	/*
 	 * if parent equals null -> nothing found in the root. Start a new
 	 * branch
 	 */
 	if (parent == null) {
 	    Word first = sentence.getTokens().get(0);
-	    Node node = new Node(first.getPost(), first.getName());
+	    Node node = new Node(first.getPost(), first.getTag().getTagType(),
+		    first.getName(), first.getLemmatizedName());
 	    Root.add(node);
 	    insertRemaining(sentence, 1, node);
 	} else {
@@ -106,7 +121,8 @@ public class Trie {
 
 	    while (wordIterator.hasNext()) {
 		Word currentWord = wordIterator.next();
-		found = parent.findChild(currentWord.getPost());
+		found = parent.findChild(currentWord.getTag().getTagType(),
+			currentWord.getPost());
 		if (found != null) {
 		    parent = found;
 		    found.addWord(currentWord.getLemmatizedName());
@@ -137,7 +153,8 @@ public class Trie {
     private void insertRemaining(Sentence sentence, int position, Node parent) {
 	for (int i = position; i < sentence.getTokens().size(); i++) {
 	    Word word = sentence.getTokens().get(i);
-	    Node child = new Node(word.getPost(), word.getName());
+	    Node child = new Node(word.getPost(), word.getTag().getTagType(),
+		    word.getName(), word.getLemmatizedName());
 	    parent.addChild(child);
 	    parent = child;
 	}
@@ -147,6 +164,123 @@ public class Trie {
 	parent.getLeafInformation().sentences.add(sentence.getValue());
     }
 
+    /**
+     * Insert sentences without changing this trie. Only the nodes on the paths
+     * of the new sentences are copied, everything else is shared with this
+     * trie, which can still be read while and after the copy is updated.
+     * 
+     * @param sentences
+     *            The sentences to be added, in order.
+     * @return the updated copy
+     */
+    public Trie withSentences(List<Sentence> sentences) {
+	Trie copy = new Trie();
+	copy.PrintBehavior = PrintBehavior;
+	copy.Root = Root.copy();
+
+	/* Nodes that belong to the copy only and can be changed */
+	Set<Node> owned = Collections
+		.newSetFromMap(new IdentityHashMap<Node, Boolean>());
+	for (Sentence sentence : sentences) {
+	    copy.copyPath(sentence, owned);
+	    copy.insert(sentence);
+	}
+	return copy;
+    }
+
+    /*
+     * Replace the existing nodes the sentence is going to be inserted into by
+     * copies. Follows the same path as insertIntoTrie.
+     */
+    private void copyPath(Sentence sentence, Set<Node> owned) {
+	List<Word> tokens = sentence.getTokens();
+	Word first = tokens.get(0);
+	Node node = Root.get(first.getTag().getTagType(), first.getPost());
+	if (node == null) {
+	    return;
+	}
+	node = own(Root, node, owned);
+
+	for (int i = 1; i < tokens.size(); i++) {
+	    Word word = tokens.get(i);
+	    Node child = node.findChild(word.getTag().getTagType(),
+		    word.getPost());
+	    if (child == null) {
+		return;
+	    }
+	    node = own(node.getChildTable(), child, owned);
+	}
+    }
+
+    private static Node own(ChildTable parent, Node node, Set<Node> owned) {
+	if (owned.contains(node)) {
+	    return node;
+	}
+	Node copy = new Node(node);
+	parent.replace(node, copy);
+	owned.add(copy);
+	return copy;
+    }
+
+    /*
+     * ------------------------------------------------------------------------
+     * MERGE ROUTINES
+     * ------------------------------------------------------------------------
+     */
+
+    /**
+     * Merge a trie built from sentences that come after the sentences of this
+     * trie. The result is the same trie as inserting all the sentences into
+     * this one, in order, so tries built in parallel from consecutive shards
+     * of the training data can be merged from left to right.
+     * 
+     * Only the nodes of the later trie are visited, their words are appended
+     * as a whole and their stop word counts added. Tries merged from other
+     * tries can be merged again, so the merges can be done pairwise.
+     * 
+     * The nodes of the later trie are taken over, it must not be used
+     * afterwards.
+     * 
+     * @param later
+     *            Trie built from the following sentences
+     */
+    public void merge(Trie later) {
+	for (Node node : later.getRoot()) {
+	    Node existing = Root.get(node.getTagType(), node.getTag());
+	    if (existing == null) {
+		Root.add(node);
+	    } else {
+		/*
+		 * A root only gets leaf information from a sentence of one word
+		 * that created it. Here it existed already, so it would not.
+		 */
+		mergeNode(existing, node, false);
+	    }
+	}
+    }
+
+    private static void mergeNode(Node target, Node later, boolean keepLeaf) {
+	/*
+	 * Its first word created the later node, had it existed it would have
+	 * been given the lemma.
+	 */
+	target.addWords(later, later.getCreationLemma());
+
+	/* The last sentence ending here wins */
+	if (keepLeaf && later.getLeafInformation() != null) {
+	    target.setLeafInformation(later.getLeafInformation());
+	}
+
+	for (Node child : later.getChildren()) {
+	    Node existing = target.findChild(child.getTagType(), child.getTag());
+	    if (existing == null) {
+		target.addChild(child);
+	    } else {
+		mergeNode(existing, child, true);
+	    }
+	}
+    }
+
     /*
      * ------------------------------------------------------------------------
      * INSERTION ROUTINES END
@@ -184,7 +318,7 @@ public class Trie {
      * 
      */
     public void print(PrintStream printer) {
-	for (Node node : Root) {
+	for (Node node : Root.asList()) {
 	    printer.println();
 	    node.print(printer, this.PrintBehavior, 0);
 	}
@@ -9,20 +9,42 @@ public class Branch implements Comparable<Branch> {
 	List<SerialNode> nodes = new ArrayList<SerialNode>();
 	LeafNode leafInformation;
 	List<String> sentences;
+
+	/* TagType ordinals of the nodes, built on first use */
+	private volatile int[] tagOrdinals;
+
 	public Branch() {
 
 	}
 
 	public void add(SerialNode node) {
 		nodes.add(node);
+		tagOrdinals = null;
 	}
 
 	public void addAll(List<SerialNode> nodes) {
 		this.nodes.addAll(nodes);
+		tagOrdinals = null;
 	}
 
 	public void add(int index, SerialNode node) {
 		nodes.add(index, node);
+		tagOrdinals = null;
+	}
+
+	/**
+	 * @return TagType ordinal of every node. Must not be modified.
+	 */
+	public int[] tagOrdinals() {
+		int[] ordinals = tagOrdinals;
+		if (ordinals == null) {
+			ordinals = new int[nodes.size()];
+			for (int i = 0; i < ordinals.length; i++) {
+				ordinals[i] = nodes.get(i).getTag().getTagType().ordinal();
+			}
+			tagOrdinals = ordinals;
+		}
+		return ordinals;
 	}
 
 	@Override
@@ -0,0 +1,66 @@
+package trie.serial;
+
+import java.util.List;
+
+import nlp.objects.Model;
+import nlp.processing.EditDistance.Operation;
+
+/**
+ * A branch of the SerialTrie together with its edit distance to a sentence.
+ *
+ * Ranked lookups also resolve the operations that turn the sentence into the
+ * branch, and the data model stored at the end of the branch.
+ */
+public class Match
+{
+	private final Branch branch;
+	private final int cost;
+	private final List<Operation> operations;
+	private final Model model;
+
+	public Match(Branch branch, int cost)
+	{
+		this(branch, cost, null, null);
+	}
+
+	public Match(Branch branch, int cost, List<Operation> operations, Model model)
+	{
+		this.branch = branch;
+		this.cost = cost;
+		this.operations = operations;
+		this.model = model;
+	}
+
+	public Branch getBranch()
+	{
+		return branch;
+	}
+
+	public int getCost()
+	{
+		return cost;
+	}
+
+	/**
+	 * @return edit operations from the sentence to the branch, or null if
+	 *         they were not resolved
+	 */
+	public List<Operation> getOperations()
+	{
+		return operations;
+	}
+
+	/**
+	 * @return data model of the branch, or null if it was not resolved
+	 */
+	public Model getModel()
+	{
+		return model;
+	}
+
+	@Override
+	public String toString()
+	{
+		return String.format("%d %s", cost, branch.toString("[%-4s] "));
+	}
+}
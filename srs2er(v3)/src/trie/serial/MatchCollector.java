@@ -0,0 +1,31 @@
+package trie.serial;
+
+/**
+ * Receives the branches that matched a sentence, in SerialTrie branch order.
+ */
+interface MatchCollector
+{
+	/**
+	 * @return only branches with a cost below this are wanted. May go down
+	 *         while matching, never up.
+	 */
+	int cutoff();
+
+	/**
+	 * @param cost
+	 *            Edit distance of the branch, below the current cutoff
+	 */
+	void add(Branch branch, int cost);
+
+	/**
+	 * @return a new, empty collector of the same kind, for branches that are
+	 *         scored separately (on another thread)
+	 */
+	MatchCollector split();
+
+	/**
+	 * Take over the matches of a collector split from this one. All of its
+	 * branches come after the branches of this collector.
+	 */
+	void merge(MatchCollector later);
+}
@@ -0,0 +1,47 @@
+package trie.serial;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Keeps every branch below a fixed threshold, in branch order.
+ */
+class MatchList implements MatchCollector
+{
+	private final int threshold;
+	private final List<Match> matches = new ArrayList<Match>();
+
+	MatchList(int threshold)
+	{
+		this.threshold = threshold;
+	}
+
+	@Override
+	public int cutoff()
+	{
+		return threshold;
+	}
+
+	@Override
+	public void add(Branch branch, int cost)
+	{
+		matches.add(new Match(branch, cost));
+	}
+
+	@Override
+	public MatchCollector split()
+	{
+		return new MatchList(threshold);
+	}
+
+	@Override
+	public void merge(MatchCollector later)
+	{
+		matches.addAll(((MatchList) later).matches);
+	}
+
+	List<Match> matches()
+	{
+		return matches;
+	}
+}
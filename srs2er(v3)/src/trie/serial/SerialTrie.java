@@ -1,17 +1,27 @@
 package trie.serial;
 
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.logging.Level;
 
 import erTagger.ERTagger;
 import nlp.objects.Sentence;
+import nlp.objects.TagDataLoader;
+import nlp.objects.TagDataLoader.CostTable;
 import nlp.processing.EditDistance;
 import nlp.processing.EditDistance.Operation;
+import trie.FrozenTrie;
 import trie.Node;
 import trie.Trie;
+import util.metrics.Counter;
+import util.metrics.Histogram;
+import util.metrics.Metrics;
 
 /*
  * 
@@ -19,20 +29,132 @@ import trie.Trie;
  */
 public class SerialTrie
 {
+	/*
+	 * Change cost to include more results. All the branches with cost less
+	 * than this threshold will be displayed.
+	 */
+	public static final int COST_THRESHOLD = 5;
+
+	/*
+	 * Tries with fewer branches are always scored on the calling thread, and
+	 * a parallel task scores about SCORING_CHUNK branches on its own, see
+	 * TrieMatcher.units.
+	 */
+	static final int PARALLEL_THRESHOLD = 512;
+	static final int SCORING_CHUNK = 64;
+
+	/* Time to score one sentence against all branches */
+	private static final Histogram SCORING = Metrics.getInstance().histogram("lookup.serial");
+
+	/*
+	 * Branches whose edit distance was computed, in full or until abandoned.
+	 * TrieMatcher adds the branches it reaches to the same counter.
+	 */
+	static final Counter BRANCHES_SCORED = Metrics.getInstance().counter("scoring.branches");
+
 	List<Branch> branches;
 
+	/* Scores the branches by walking the trie instead of one by one */
+	private TrieMatcher matcher;
+
+	/* Null when scoring sequentially */
+	private ForkJoinPool pool;
+
 	public SerialTrie(Trie trie)
 	{
-		List<Node> roots = trie.getRoot();
 		branches = new ArrayList<Branch>();
-		for (Node node : roots)
+		for (Node root : trie.getRoot())
+		{
+			branches.addAll(exploreNode(root));
+		}
+	}
+
+	/**
+	 * SerialTrie of a copy of the trie this one was created from, see
+	 * Trie.withSentences and FrozenTrie.update. Only the nodes that were
+	 * copied or added are explored again. The branches of the subtrees the
+	 * copy shares with the previous trie are reused, they are found by the
+	 * branch counts of the previous frozen trie. The list of branches itself
+	 * is still copied. This SerialTrie is not changed.
+	 * 
+	 * The new SerialTrie scores on the same pool. It has no trie matcher, set
+	 * one for the frozen copy if needed.
+	 * 
+	 * @param previous
+	 *            The trie this SerialTrie was created from
+	 * @param frozen
+	 *            The frozen previous trie
+	 * @param updated
+	 *            The copy with the new sentences
+	 */
+	public SerialTrie update(Trie previous, FrozenTrie frozen, Trie updated)
+	{
+		List<Branch> updatedBranches = new ArrayList<Branch>(branches.size() + 16);
+		update(frozen, updated.getRoot(), previous.getRoot(), FrozenTrie.ROOT, 0,
+				new ArrayList<SerialNode>(), updatedBranches);
+
+		SerialTrie serialTrie = new SerialTrie(updatedBranches);
+		serialTrie.pool = pool;
+		return serialTrie;
+	}
+
+	/*
+	 * Adds the branches below the children to updated. The children of the
+	 * node oldParent of the frozen trie are their counterparts, by position,
+	 * and its branches start at oldBranch. path holds the nodes above.
+	 */
+	private void update(FrozenTrie frozen, List<Node> children, List<Node> oldChildren,
+			int oldParent, int oldBranch, List<SerialNode> path, List<Branch> updated)
+	{
+		int oldStart = frozen.childStart(oldParent);
+		for (int i = 0; i < children.size(); i++)
 		{
-			List<Branch> serialized = exploreNode(node);
+			Node child = children.get(i);
+			boolean counterpart = i < oldChildren.size();
+			int count = counterpart ? frozen.branchCount(oldStart + i) : 0;
 
-			branches.addAll(serialized);
+			if (counterpart && child == oldChildren.get(i))
+			{
+				updated.addAll(branches.subList(oldBranch, oldBranch + count));
+			}
+			else if (counterpart == false)
+			{
+				for (Branch explored : exploreNode(child))
+				{
+					Branch branch = new Branch();
+					branch.addAll(path);
+					branch.addAll(explored.nodes);
+					branch.leafInformation = explored.leafInformation;
+					branch.sentences = explored.sentences;
+					updated.add(branch);
+				}
+			}
+			else if (child.getChildren().isEmpty())
+			{
+				Branch branch = new Branch();
+				branch.addAll(path);
+				branch.add(new SerialNode(child.getTag()));
+				branch.leafInformation = child.getLeafInformation();
+				branch.sentences = child.getLeafInformation().sentences;
+				updated.add(branch);
+			}
+			else
+			{
+				path.add(new SerialNode(child.getTag()));
+				update(frozen, child.getChildren(), oldChildren.get(i).getChildren(),
+						oldStart + i, oldBranch, path, updated);
+				path.remove(path.size() - 1);
+			}
+			oldBranch += count;
 		}
 	}
 
+	/* Used when restoring a snapshot. Branches are already serialized. */
+	SerialTrie(List<Branch> branches)
+	{
+		this.branches = branches;
+	}
+
 	private List<Branch> exploreNode(Node node)
 	{
 		List<Branch> childBranches = new ArrayList<Branch>();
@@ -60,45 +182,234 @@ public class SerialTrie
 		return childBranches;
 	}
 
-	public void Lookup(Sentence sentence)
+	/**
+	 * Score branches by walking the given trie, which must be the trie this
+	 * SerialTrie was created from.
+	 */
+	public void useTrieMatcher(FrozenTrie trie)
+	{
+		matcher = new TrieMatcher(trie, this);
+	}
+
+	/**
+	 * Score branches on a fork/join pool with the given number of threads.
+	 * One or less scores on the calling thread. Results are the same either
+	 * way.
+	 */
+	public void setParallelism(int parallelism)
+	{
+		ForkJoinPool old = pool;
+		pool = parallelism > 1 ? new ForkJoinPool(parallelism) : null;
+		if (old != null)
+		{
+			old.shutdown();
+		}
+	}
+
+	/**
+	 * All branches whose edit distance to the sentence is below the threshold.
+	 * 
+	 * @return matches in branch order
+	 */
+	public List<Match> match(Sentence sentence, int threshold)
+	{
+		MatchList matches = new MatchList(threshold);
+		match(sentence, TagDataLoader.costs(), matches);
+		return matches.matches();
+	}
+
+	/**
+	 * The k branches closest to the sentence, with a cost below maxCost.
+	 * 
+	 * Only the k best candidates are kept while scoring, and branches that
+	 * can no longer beat the k-th best are abandoned early. Operations and
+	 * data model are resolved for the returned matches only. The costs are
+	 * read once, so ranking and operations use the same costs even if others
+	 * are loaded meanwhile.
+	 * 
+	 * @return matches, cheapest first. Equal costs keep the branch order.
+	 */
+	public List<Match> lookupTopK(Sentence sentence, int k, int maxCost)
+	{
+		CostTable costs = TagDataLoader.costs();
+		TopMatches top = new TopMatches(k, maxCost);
+		match(sentence, costs, top);
+
+		List<Match> ranked = new ArrayList<Match>();
+		for (Match match : top.ranked())
+		{
+			Branch branch = match.getBranch();
+			List<Operation> ops = EditDistance.editDistanceExtended(costs, sentence, branch)
+					.second();
+			ranked.add(new Match(branch, match.getCost(), ops,
+					branch.leafInformation.getDataModel()));
+		}
+		return ranked;
+	}
+
+	private void match(Sentence sentence, CostTable costs, MatchCollector matches)
+	{
+		long start = System.nanoTime();
+		try
+		{
+			score(sentence, costs, matches);
+		}
+		finally
+		{
+			SCORING.recordSince(start);
+		}
+	}
+
+	private void score(Sentence sentence, CostTable costs, MatchCollector matches)
+	{
+		ForkJoinPool pool = this.pool;
+		if (pool != null && branches.size() >= PARALLEL_THRESHOLD)
+		{
+			int units = matcher != null ? matcher.units() : branches.size();
+			try
+			{
+				pool.invoke(new ScoringTask(sentence, costs, matcher, branches, 0, units,
+						matches));
+				return;
+			}
+			catch (RejectedExecutionException e)
+			{
+				/*
+				 * The pool was shut down by setParallelism on a newer
+				 * SerialTrie sharing it. Nothing was scored yet.
+				 */
+			}
+		}
+		if (matcher != null)
+		{
+			matcher.match(sentence, costs, matches);
+		}
+		else
+		{
+			scan(sentence, costs, branches, matches);
+		}
+	}
+
+	/**
+	 * Scores a range of branches, or of units when the trie matcher is used.
+	 * Ranges are split in halves, the right half is forked and its matches
+	 * are merged after those of the left half, so the merged result is in
+	 * branch order. The edit distance buffers are thread local, so every
+	 * worker uses its own.
+	 */
+	private static class ScoringTask extends RecursiveTask<MatchCollector>
 	{
-		/* Hash map with chaining */
-		Map<Integer, List<Branch>> costs = new HashMap<Integer, List<Branch>>();
+		private static final long serialVersionUID = 1L;
 
-		ERTagger.LOGGER.info("Looking up for: " + sentence);
+		private final Sentence sentence;
+		private final CostTable costs;
+		private final TrieMatcher matcher;
+		private final List<Branch> branches;
+		private final int from;
+		private final int to;
+		private final MatchCollector matches;
 
+		ScoringTask(Sentence sentence, CostTable costs, TrieMatcher matcher,
+				List<Branch> branches, int from, int to, MatchCollector matches)
+		{
+			this.sentence = sentence;
+			this.costs = costs;
+			this.matcher = matcher;
+			this.branches = branches;
+			this.from = from;
+			this.to = to;
+			this.matches = matches;
+		}
+
+		@Override
+		protected MatchCollector compute()
+		{
+			int chunk = matcher != null ? 1 : SCORING_CHUNK;
+			if (to - from <= chunk)
+			{
+				if (matcher != null)
+				{
+					matcher.match(sentence, costs, from, to, matches);
+				}
+				else
+				{
+					scan(sentence, costs, branches.subList(from, to), matches);
+				}
+				return matches;
+			}
+
+			int middle = (from + to) >>> 1;
+			ScoringTask right = new ScoringTask(sentence, costs, matcher, branches,
+					middle, to, matches.split());
+			right.fork();
+			new ScoringTask(sentence, costs, matcher, branches, from, middle, matches)
+					.compute();
+			matches.merge(right.join());
+			return matches;
+		}
+	}
+
+	/* Score every branch on its own */
+	List<Match> scan(Sentence sentence, int threshold)
+	{
+		MatchList matches = new MatchList(threshold);
+		scan(sentence, TagDataLoader.costs(), branches, matches);
+		return matches.matches();
+	}
+
+	private static void scan(Sentence sentence, CostTable costs, List<Branch> branches,
+			MatchCollector matches)
+	{
 		for (Branch branch : branches)
 		{
-			ERTagger.LOGGER.config("Looking up against: " + branch.toString("[%-4s] "));
-			int cost = EditDistance.editDistance(sentence, branch);
-			ERTagger.LOGGER.config("Cost = " + cost);
+			int cost = EditDistance.editDistance(costs, sentence, branch, matches.cutoff());
+			if (ERTagger.SCORING_TRACE.isLoggable(Level.CONFIG))
+			{
+				ERTagger.SCORING_TRACE.log(Level.CONFIG, "Cost = " + cost + " against: "
+						+ branch.toString("[%-4s] "));
+			}
 
-			/* Add the branch and its cost to Map */
-			if (costs.containsKey(cost) == false)
+			if (cost != EditDistance.ABANDONED)
 			{
-				costs.put(cost, new LinkedList<Branch>());
+				matches.add(branch, cost);
 			}
+		}
+		BRANCHES_SCORED.add(branches.size());
+	}
+
+	public void Lookup(Sentence sentence)
+	{
+		/* Branches grouped by cost, lowest cost first */
+		Map<Integer, List<Branch>> costs = new TreeMap<Integer, List<Branch>>();
 
-			List<Branch> br = costs.get(cost);
-			br.add(branch);
+		if (ERTagger.LOGGER.isLoggable(Level.INFO))
+		{
+			ERTagger.LOGGER.info("Looking up for: " + sentence);
+		}
 
-			costs.put(cost, br);
+		CostTable costTable = TagDataLoader.costs();
+		MatchList matches = new MatchList(COST_THRESHOLD);
+		match(sentence, costTable, matches);
+		for (Match match : matches.matches())
+		{
+			/* Add the branch and its cost to Map */
+			if (costs.containsKey(match.getCost()) == false)
+			{
+				costs.put(match.getCost(), new LinkedList<Branch>());
+			}
+			costs.get(match.getCost()).add(match.getBranch());
 		}
 
 		for (Integer cost : costs.keySet())
 		{
-			/*
-			 * Change cost to include more results. All the branches with cost
-			 * less than this threshold will be displayed.
-			 */
-			if (cost < 5) {
 			System.out.println("Matches with cost: " + cost);
 			for (Branch branch : costs.get(cost))
 			{
 				System.out.println("POST of the branch:");
 				System.out.println(branch.toString("[%-4s] "));
 
-				List<Operation> ops = EditDistance.editDistanceExtended(sentence, branch).second();
+				List<Operation> ops = EditDistance.editDistanceExtended(costTable, sentence, branch)
+						.second();
 
 				Sentence sent_copy = EditDistance.updateWordIndexes(sentence, ops);
 
@@ -121,7 +432,6 @@ public class SerialTrie
 						.println("-------------------------------------------------------------------------------------");
 				// /System.out.printf("\n%80s\n", "");
 			}
-			}
 		}
 	}
 
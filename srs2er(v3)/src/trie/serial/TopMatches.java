@@ -0,0 +1,136 @@
+package trie.serial;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Keeps the k cheapest branches.
+ *
+ * The candidates are held in a heap with the worst one on top. Once the heap
+ * is full the cutoff drops to the cost of that worst candidate, so branches
+ * that cannot make it into the top k are abandoned early. Branches arrive in
+ * branch order, so on equal cost the earlier branch wins.
+ */
+class TopMatches implements MatchCollector
+{
+	private static final class Candidate
+	{
+		final Branch branch;
+		final int cost;
+		final int order;
+
+		Candidate(Branch branch, int cost, int order)
+		{
+			this.branch = branch;
+			this.cost = cost;
+			this.order = order;
+		}
+	}
+
+	/* Cheapest first, then in branch order */
+	private static final Comparator<Candidate> RANKING = new Comparator<Candidate>()
+	{
+		@Override
+		public int compare(Candidate first, Candidate second)
+		{
+			if (first.cost != second.cost)
+			{
+				return first.cost < second.cost ? -1 : 1;
+			}
+			return first.order < second.order ? -1
+					: (first.order == second.order ? 0 : 1);
+		}
+	};
+
+	private static final Comparator<Candidate> BRANCH_ORDER = new Comparator<Candidate>()
+	{
+		@Override
+		public int compare(Candidate first, Candidate second)
+		{
+			return first.order < second.order ? -1
+					: (first.order == second.order ? 0 : 1);
+		}
+	};
+
+	private final int k;
+	private final int maxCost;
+	private final PriorityQueue<Candidate> heap;
+	private int added;
+
+	TopMatches(int k, int maxCost)
+	{
+		if (k < 1)
+		{
+			throw new IllegalArgumentException("k must be at least 1: " + k);
+		}
+		this.k = k;
+		this.maxCost = maxCost;
+		this.heap = new PriorityQueue<Candidate>(Math.min(k, 64),
+				Collections.reverseOrder(RANKING));
+	}
+
+	@Override
+	public int cutoff()
+	{
+		if (heap.size() < k)
+		{
+			return maxCost;
+		}
+		/* A later branch with the same cost as the worst one loses */
+		return Math.min(maxCost, heap.peek().cost);
+	}
+
+	@Override
+	public void add(Branch branch, int cost)
+	{
+		heap.add(new Candidate(branch, cost, added++));
+		if (heap.size() > k)
+		{
+			heap.poll();
+		}
+	}
+
+	@Override
+	public MatchCollector split()
+	{
+		return new TopMatches(k, maxCost);
+	}
+
+	/*
+	 * The candidates of the later collector are added in their branch order,
+	 * after all of ours, so ties are broken exactly as if the branches had
+	 * been scored one after the other.
+	 */
+	@Override
+	public void merge(MatchCollector later)
+	{
+		List<Candidate> candidates = new ArrayList<Candidate>(((TopMatches) later).heap);
+		Collections.sort(candidates, BRANCH_ORDER);
+		for (Candidate candidate : candidates)
+		{
+			if (candidate.cost < cutoff())
+			{
+				add(candidate.branch, candidate.cost);
+			}
+		}
+	}
+
+	/**
+	 * @return the matches, cheapest first
+	 */
+	List<Match> ranked()
+	{
+		List<Candidate> candidates = new ArrayList<Candidate>(heap);
+		Collections.sort(candidates, RANKING);
+
+		List<Match> matches = new ArrayList<Match>(candidates.size());
+		for (Candidate candidate : candidates)
+		{
+			matches.add(new Match(candidate.branch, candidate.cost));
+		}
+		return matches;
+	}
+}
@@ -0,0 +1,317 @@
+package trie.serial;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import nlp.objects.Sentence;
+import nlp.objects.TagDataLoader;
+import nlp.objects.TagDataLoader.CostTable;
+import trie.FrozenTrie;
+import util.metrics.Counter;
+import util.metrics.Metrics;
+
+/**
+ * Approximate matcher that scores every branch of the trie against a sentence
+ * by walking the trie depth first.
+ *
+ * Every trie node at depth j carries one column of the edit distance matrix
+ * (the costs of turning every prefix of the sentence into the first j tags of
+ * the branch). A child's column is computed from its parent's, so a prefix
+ * shared by many branches is scored once instead of once per branch.
+ *
+ * The final cost of a branch can never be below the smallest value in any of
+ * its columns, as all costs are positive. A subtree is skipped as soon as that
+ * minimum reaches the threshold.
+ *
+ * Costs are the same as EditDistance.editDistance on the SerialTrie branches,
+ * and matches are returned in SerialTrie branch order.
+ *
+ * To be scored in parallel the trie is cut into units of neighbouring
+ * subtrees with about SerialTrie.SCORING_CHUNK branches together. A subtree
+ * with more branches is cut into the subtrees of its children, so a large
+ * tree is spread over many units. A unit computes the columns of the nodes
+ * above it again before walking its subtrees.
+ */
+public class TrieMatcher
+{
+	/* Same counter as EditDistance, one cell per node and sentence token */
+	private static final Counter CELLS = Metrics.getInstance().counter("scoring.cells");
+
+	private final FrozenTrie trie;
+
+	/*
+	 * SerialTrie lists the branches depth first, in child order. The branch
+	 * of a childless node is found by counting the branches of the subtrees
+	 * before it, see FrozenTrie.branchCount.
+	 */
+	private final List<Branch> branches;
+
+	/*
+	 * Every unit is the children [unitFrom, unitTo) of the last node of its
+	 * path, the nodes from a root down, or of the virtual root if the path
+	 * is empty. unitBranch is the index of its first branch.
+	 */
+	private final int[][] unitPaths;
+	private final int[] unitFrom;
+	private final int[] unitTo;
+	private final int[] unitBranch;
+
+	public TrieMatcher(FrozenTrie trie, SerialTrie serialTrie)
+	{
+		if (trie.branchCount(FrozenTrie.ROOT) != serialTrie.branches.size())
+		{
+			throw new IllegalArgumentException(String.format(
+					"Trie has %d branches but SerialTrie has %d.",
+					trie.branchCount(FrozenTrie.ROOT), serialTrie.branches.size()));
+		}
+		this.trie = trie;
+		this.branches = serialTrie.branches;
+
+		Units units = new Units();
+		units.split(FrozenTrie.ROOT, new int[0], 0);
+		unitPaths = units.paths.toArray(new int[units.paths.size()][]);
+		unitFrom = toArray(units.from);
+		unitTo = toArray(units.to);
+		unitBranch = toArray(units.branch);
+	}
+
+	/* Cuts the trie into units while the constructor runs */
+	private final class Units
+	{
+		final List<int[]> paths = new ArrayList<int[]>();
+		final List<Integer> from = new ArrayList<Integer>();
+		final List<Integer> to = new ArrayList<Integer>();
+		final List<Integer> branch = new ArrayList<Integer>();
+
+		/* branch is the index of the first branch below parent */
+		void split(int parent, int[] path, int branch)
+		{
+			int start = trie.childStart(parent);
+			int branches = 0;
+			for (int child = start; child < trie.childEnd(parent); child++)
+			{
+				int count = trie.branchCount(child);
+				if (count > SerialTrie.SCORING_CHUNK && trie.isLeaf(child) == false)
+				{
+					add(path, start, child, branch);
+					branch += branches;
+
+					int[] childPath = Arrays.copyOf(path, path.length + 1);
+					childPath[path.length] = child;
+					split(child, childPath, branch);
+					branch += count;
+
+					start = child + 1;
+					branches = 0;
+				}
+				else
+				{
+					if (branches + count > SerialTrie.SCORING_CHUNK)
+					{
+						add(path, start, child, branch);
+						branch += branches;
+						start = child;
+						branches = 0;
+					}
+					branches += count;
+				}
+			}
+			add(path, start, trie.childEnd(parent), branch);
+		}
+
+		private void add(int[] path, int start, int end, int branch)
+		{
+			if (start < end)
+			{
+				paths.add(path);
+				from.add(start);
+				to.add(end);
+				this.branch.add(branch);
+			}
+		}
+	}
+
+	private static int[] toArray(List<Integer> values)
+	{
+		int[] array = new int[values.size()];
+		for (int i = 0; i < array.length; i++)
+		{
+			array[i] = values.get(i);
+		}
+		return array;
+	}
+
+	/**
+	 * Score the sentence against all branches.
+	 *
+	 * @param sentence
+	 *            POS tagged sentence
+	 * @param threshold
+	 *            Only branches with a cost below this are returned
+	 * @return matches in SerialTrie branch order
+	 */
+	public List<Match> match(Sentence sentence, int threshold)
+	{
+		MatchList matches = new MatchList(threshold);
+		match(sentence, TagDataLoader.costs(), matches);
+		return matches.matches();
+	}
+
+	/**
+	 * @return number of units the trie is cut into for parallel scoring
+	 */
+	int units()
+	{
+		return unitFrom.length;
+	}
+
+	void match(Sentence sentence, CostTable costs, MatchCollector matches)
+	{
+		Columns columns = new Columns(sentence, costs);
+		long[] counts = {0, 0};
+		int branch = 0;
+		for (int root = trie.childStart(FrozenTrie.ROOT); root < trie.childEnd(FrozenTrie.ROOT); root++)
+		{
+			visit(root, 1, branch, columns.costs, columns.original, columns.columns, matches, counts);
+			branch += trie.branchCount(root);
+		}
+		count(sentence, counts);
+	}
+
+	/**
+	 * Score the sentence against the branches of the units [from, to). Their
+	 * branches are contiguous in SerialTrie branch order. Subtrees are pruned
+	 * against the current cutoff of the collector, which may go down while
+	 * walking.
+	 */
+	void match(Sentence sentence, CostTable costs, int from, int to, MatchCollector matches)
+	{
+		Columns columns = new Columns(sentence, costs);
+		long[] counts = {0, 0};
+		for (int unit = from; unit < to; unit++)
+		{
+			int[] path = unitPaths[unit];
+			int depth = 0;
+			for (; depth < path.length; depth++)
+			{
+				counts[0]++;
+				if (column(path[depth], depth + 1, columns.costs, columns.original,
+						columns.columns) >= matches.cutoff())
+				{
+					/* Nothing below the node can get under the threshold */
+					break;
+				}
+			}
+			if (depth < path.length)
+			{
+				continue;
+			}
+
+			int branch = unitBranch[unit];
+			for (int child = unitFrom[unit]; child < unitTo[unit]; child++)
+			{
+				visit(child, depth + 1, branch, columns.costs, columns.original,
+						columns.columns, matches, counts);
+				branch += trie.branchCount(child);
+			}
+		}
+		count(sentence, counts);
+	}
+
+	/* Edit distance columns for one sentence, column 0 is the virtual root */
+	private final class Columns
+	{
+		final CostTable costs;
+		final int[] original;
+		final int[][] columns;
+
+		Columns(Sentence sentence, CostTable costs)
+		{
+			this.costs = costs;
+			int size = sentence.getTokens().size();
+			original = new int[size];
+			for (int i = 0; i < size; i++)
+			{
+				original[i] = sentence.getTokens().get(i).getTag().getTagType().ordinal();
+			}
+
+			/* One column per depth */
+			columns = new int[trie.maxDepth() + 1][size + 1];
+			for (int i = 1; i <= size; i++)
+			{
+				columns[0][i] = columns[0][i - 1] + costs.deletion[original[i - 1]];
+			}
+		}
+	}
+
+	/* Nodes visited and branches reached */
+	private static void count(Sentence sentence, long[] counts)
+	{
+		CELLS.add(counts[0] * sentence.getTokens().size());
+		SerialTrie.BRANCHES_SCORED.add(counts[1]);
+	}
+
+	/* branch is the index of the first branch below the node */
+	private void visit(int node, int depth, int branch, CostTable costs, int[] original,
+			int[][] columns, MatchCollector matches, long[] counts)
+	{
+		counts[0]++;
+		if (column(node, depth, costs, original, columns) >= matches.cutoff())
+		{
+			/* Nothing below this node can get under the threshold */
+			return;
+		}
+
+		if (trie.isLeaf(node))
+		{
+			counts[1]++;
+			int[] column = columns[depth];
+			int cost = column[column.length - 1];
+			if (cost < matches.cutoff())
+			{
+				matches.add(branches.get(branch), cost);
+			}
+			return;
+		}
+
+		for (int child = trie.childStart(node); child < trie.childEnd(node); child++)
+		{
+			visit(child, depth + 1, branch, costs, original, columns, matches, counts);
+			branch += trie.branchCount(child);
+		}
+	}
+
+	/*
+	 * Computes the column of the node from the column of its parent.
+	 * 
+	 * @return smallest value in the column
+	 */
+	private int column(int node, int depth, CostTable costs, int[] original, int[][] columns)
+	{
+		int[] previous = columns[depth - 1];
+		int[] column = columns[depth];
+		int target = trie.tagOrdinal(node);
+		int insertion = costs.insertion[target];
+
+		column[0] = previous[0] + insertion;
+		int minimum = column[0];
+		for (int i = 1; i < column.length; i++)
+		{
+			int tag = original[i - 1];
+			if (tag == target)
+			{
+				column[i] = previous[i - 1];
+			}
+			else
+			{
+				int insCost = previous[i] + insertion;
+				int delCost = column[i - 1] + costs.deletion[tag];
+				int subsCost = previous[i - 1] + costs.substitution(tag, target);
+				column[i] = Math.min(Math.min(insCost, delCost), subsCost);
+			}
+			minimum = Math.min(minimum, column[i]);
+		}
+		return minimum;
+	}
+}
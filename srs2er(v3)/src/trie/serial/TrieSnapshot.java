@@ -0,0 +1,510 @@
+package trie.serial;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+import erTagger.ERTagger;
+import nlp.objects.Attribute;
+import nlp.objects.Entity;
+import nlp.objects.Model;
+import nlp.objects.RelationEntity;
+import nlp.objects.Relationship;
+import trie.LeafNode;
+import trie.Node;
+import trie.Trie;
+
+/**
+ * Binary snapshot of a trained Trie and its SerialTrie.
+ *
+ * The snapshot holds every node (tag, words, stop word probability), the leaf
+ * models with their lemmatized names and the serialized branch list, so that a
+ * restored tagger neither unmarshals the training XML nor annotates anything.
+ *
+ * Layout (big endian):
+ *
+ * <pre>
+ * int    MAGIC
+ * int    VERSION
+ * int    source count, then for every source: UTF path, long length, long crc
+ * int    payload length
+ * long   payload crc
+ * byte[] payload: string table, nodes (pre order), branches
+ * </pre>
+ *
+ * A snapshot is stale when any of the sources it was built from has changed.
+ */
+public class TrieSnapshot {
+
+	private static final int MAGIC = 0x53525454; /* "SRTT" */
+	private static final int VERSION = 1;
+
+	private static final int NULL_STRING = -1;
+
+	private final Trie trie;
+	private final SerialTrie serialTrie;
+
+	private TrieSnapshot(Trie trie, SerialTrie serialTrie) {
+		this.trie = trie;
+		this.serialTrie = serialTrie;
+	}
+
+	public Trie getTrie() {
+		return trie;
+	}
+
+	public SerialTrie getSerialTrie() {
+		return serialTrie;
+	}
+
+	/*
+	 * ------------------------------------------------------------------------
+	 * WRITE ROUTINES
+	 * ------------------------------------------------------------------------
+	 */
+
+	/**
+	 * Export the trie and its serialized branches.
+	 *
+	 * @param file
+	 *            Snapshot file to write
+	 * @param trie
+	 *            Trained trie
+	 * @param serialTrie
+	 *            SerialTrie created from the same trie
+	 * @param sources
+	 *            Files the trie was trained from. Used for staleness check.
+	 */
+	public static void write(File file, Trie trie, SerialTrie serialTrie,
+			List<File> sources) throws IOException {
+		Writer writer = new Writer();
+		byte[] payload = writer.write(trie, serialTrie);
+
+		CRC32 crc = new CRC32();
+		crc.update(payload);
+
+		File parent = file.getAbsoluteFile().getParentFile();
+		if (parent != null) {
+			parent.mkdirs();
+		}
+
+		/* Write to a temporary file first so a reader never sees half a file */
+		File temp = new File(file.getPath() + ".tmp");
+		try (OutputStream os = new FileOutputStream(temp);
+				DataOutputStream out = new DataOutputStream(os)) {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+
+			out.writeInt(sources.size());
+			for (File source : sources) {
+				out.writeUTF(source.getPath());
+				out.writeLong(source.length());
+				out.writeLong(checksum(source));
+			}
+
+			out.writeInt(payload.length);
+			out.writeLong(crc.getValue());
+			out.write(payload);
+		}
+
+		Files.move(temp.toPath(), file.toPath(),
+				StandardCopyOption.REPLACE_EXISTING);
+
+		ERTagger.LOGGER.config(String.format(
+				"Exported trie snapshot: %d nodes, %d branches, %d bytes.",
+				writer.nodeIds.size(), serialTrie.branches.size(),
+				file.length()));
+	}
+
+	private static class Writer {
+		Map<String, Integer> strings = new HashMap<String, Integer>();
+		List<String> stringTable = new ArrayList<String>();
+		Map<Node, Integer> nodeIds = new IdentityHashMap<Node, Integer>();
+
+		byte[] write(Trie trie, SerialTrie serialTrie) throws IOException {
+			ByteArrayOutputStream body = new ByteArrayOutputStream(1 << 16);
+			DataOutputStream out = new DataOutputStream(body);
+
+			out.writeInt(trie.getRoot().size());
+			for (Node root : trie.getRoot()) {
+				writeNode(out, root);
+			}
+
+			out.writeInt(serialTrie.branches.size());
+			for (Branch branch : serialTrie.branches) {
+				writeBranch(out, branch);
+			}
+			out.flush();
+
+			/* The string table is written in front of the nodes */
+			ByteArrayOutputStream all = new ByteArrayOutputStream(
+					body.size() + stringTable.size() * 8);
+			DataOutputStream allOut = new DataOutputStream(all);
+			allOut.writeInt(stringTable.size());
+			for (String string : stringTable) {
+				allOut.writeUTF(string);
+			}
+			body.writeTo(allOut);
+			allOut.flush();
+			return all.toByteArray();
+		}
+
+		private void writeNode(DataOutputStream out, Node node)
+				throws IOException {
+			nodeIds.put(node, nodeIds.size());
+
+			writeString(out, node.getTag());
+			out.writeDouble(node.getIsStopWordProbability());
+
+			List<String> words = node.getWords();
+			out.writeInt(words.size());
+			for (String word : words) {
+				writeString(out, word);
+			}
+
+			LeafNode leaf = node.getLeafInformation();
+			out.writeBoolean(leaf != null);
+			if (leaf != null) {
+				writeModel(out, leaf.getDataModel());
+				out.writeInt(leaf.sentences.size());
+				for (String sentence : leaf.sentences) {
+					writeString(out, sentence);
+				}
+			}
+
+			out.writeInt(node.getChildren().size());
+			for (Node child : node.getChildren()) {
+				writeNode(out, child);
+			}
+		}
+
+		private void writeModel(DataOutputStream out, Model model)
+				throws IOException {
+			out.writeBoolean(model != null);
+			if (model == null) {
+				return;
+			}
+
+			out.writeInt(model.getEntities().size());
+			for (Entity entity : model.getEntities()) {
+				writeType(out, entity.getId(), entity.getWordIndex(),
+						entity.getLength(), entity.getName(),
+						entity.getLemmName());
+				writeString(out, entity.getSuperclass());
+
+				out.writeInt(entity.getAttributes().size());
+				for (Attribute attribute : entity.getAttributes()) {
+					writeType(out, attribute.getId(),
+							attribute.getWordIndex(), attribute.getLength(),
+							attribute.getName(), attribute.getLemmName());
+				}
+			}
+
+			out.writeInt(model.getRelationships().size());
+			for (Relationship relationship : model.getRelationships()) {
+				writeType(out, relationship.getId(),
+						relationship.getWordIndex(), relationship.getLength(),
+						relationship.getName(), relationship.getLemmName());
+
+				out.writeInt(relationship.getConnects().size());
+				for (RelationEntity re : relationship.getConnects()) {
+					out.writeInt(re.getEntityId());
+					writeString(out, re.getCardinality());
+					writeString(out, re.getParticipation());
+					writeString(out, re.getName());
+					/* Lemmatize now, so that the restored model never has to */
+					writeString(out, re.getName() == null ? null : re.getLemmName());
+				}
+			}
+		}
+
+		private void writeType(DataOutputStream out, int id, int wordIndex,
+				int length, String name, String lemmName) throws IOException {
+			out.writeInt(id);
+			out.writeInt(wordIndex);
+			out.writeInt(length);
+			writeString(out, name);
+			writeString(out, lemmName);
+		}
+
+		private void writeBranch(DataOutputStream out, Branch branch)
+				throws IOException {
+			out.writeInt(nodeIds.get(leafNodeOf(branch)));
+			out.writeInt(branch.size());
+			for (int i = 0; i < branch.size(); i++) {
+				writeString(out, branch.get(i).getTag().toString());
+			}
+		}
+
+		/* The leaf of a branch is the node that shares its LeafNode */
+		private Map<LeafNode, Node> leafOwners;
+
+		private Node leafNodeOf(Branch branch) {
+			if (leafOwners == null) {
+				leafOwners = new IdentityHashMap<LeafNode, Node>();
+				for (Node node : nodeIds.keySet()) {
+					if (node.getLeafInformation() != null) {
+						leafOwners.put(node.getLeafInformation(), node);
+					}
+				}
+			}
+			return leafOwners.get(branch.leafInformation);
+		}
+
+		private void writeString(DataOutputStream out, String string)
+				throws IOException {
+			if (string == null) {
+				out.writeInt(NULL_STRING);
+				return;
+			}
+			Integer index = strings.get(string);
+			if (index == null) {
+				index = stringTable.size();
+				strings.put(string, index);
+				stringTable.add(string);
+			}
+			out.writeInt(index);
+		}
+	}
+
+	/*
+	 * ------------------------------------------------------------------------
+	 * READ ROUTINES
+	 * ------------------------------------------------------------------------
+	 */
+
+	/**
+	 * Restore the trie and SerialTrie from a snapshot.
+	 *
+	 * @param file
+	 *            Snapshot file
+	 * @param sources
+	 *            Files the trie is expected to be trained from
+	 * @return the restored snapshot, or null if the snapshot is missing, stale
+	 *         or corrupt. The caller is expected to fall back to training.
+	 */
+	public static TrieSnapshot read(File file, List<File> sources)
+			throws IOException {
+		if (file.isFile() == false) {
+			ERTagger.LOGGER.info("No trie snapshot found at " + file);
+			return null;
+		}
+
+		/* One sequential read, everything else happens in memory */
+		byte[] bytes = Files.readAllBytes(file.toPath());
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+
+		try {
+			if (in.readInt() != MAGIC) {
+				ERTagger.LOGGER.warning("Not a trie snapshot: " + file);
+				return null;
+			}
+			int version = in.readInt();
+			if (version != VERSION) {
+				ERTagger.LOGGER.info(String.format(
+						"Trie snapshot version %d is not supported. Expected %d.",
+						version, VERSION));
+				return null;
+			}
+
+			if (isStale(in, sources)) {
+				return null;
+			}
+
+			int length = in.readInt();
+			long expected = in.readLong();
+			int offset = bytes.length - in.available();
+			if (length != in.available()) {
+				ERTagger.LOGGER.warning("Trie snapshot is truncated: " + file);
+				return null;
+			}
+
+			CRC32 crc = new CRC32();
+			crc.update(bytes, offset, length);
+			if (crc.getValue() != expected) {
+				ERTagger.LOGGER.warning("Trie snapshot checksum mismatch: " + file);
+				return null;
+			}
+
+			return new Reader().read(in);
+		} catch (IOException | RuntimeException ex) {
+			ERTagger.LOGGER.warning("Failed to read trie snapshot " + file
+					+ ": " + ex);
+			return null;
+		}
+	}
+
+	private static boolean isStale(DataInputStream in, List<File> sources)
+			throws IOException {
+		int count = in.readInt();
+		boolean stale = count != sources.size();
+
+		for (int i = 0; i < count; i++) {
+			String path = in.readUTF();
+			long length = in.readLong();
+			long crc = in.readLong();
+
+			if (stale == false) {
+				File source = sources.get(i);
+				if (source.getPath().equals(path) == false
+						|| source.length() != length
+						|| checksum(source) != crc) {
+					stale = true;
+				}
+			}
+		}
+
+		if (stale) {
+			ERTagger.LOGGER.info("Trie snapshot is stale. Training data has changed.");
+		}
+		return stale;
+	}
+
+	private static class Reader {
+		String[] strings;
+		List<Node> nodes = new ArrayList<Node>();
+
+		TrieSnapshot read(DataInputStream in) throws IOException {
+			strings = new String[in.readInt()];
+			for (int i = 0; i < strings.length; i++) {
+				strings[i] = in.readUTF();
+			}
+
+			Trie trie = new Trie();
+			int roots = in.readInt();
+			for (int i = 0; i < roots; i++) {
+				trie.addRoot(readNode(in));
+			}
+
+			int branchCount = in.readInt();
+			List<Branch> branches = new ArrayList<Branch>(branchCount);
+			for (int i = 0; i < branchCount; i++) {
+				branches.add(readBranch(in));
+			}
+
+			ERTagger.LOGGER.config(String.format(
+					"Restored trie snapshot: %d nodes, %d branches.",
+					nodes.size(), branches.size()));
+			return new TrieSnapshot(trie, new SerialTrie(branches));
+		}
+
+		private Node readNode(DataInputStream in) throws IOException {
+			String tag = readString(in);
+			double probability = in.readDouble();
+
+			int wordCount = in.readInt();
+			List<String> words = new ArrayList<String>(wordCount);
+			for (int i = 0; i < wordCount; i++) {
+				words.add(readString(in));
+			}
+
+			Node node = new Node(tag, words, probability);
+			nodes.add(node);
+
+			if (in.readBoolean()) {
+				LeafNode leaf = new LeafNode(readModel(in));
+				int sentenceCount = in.readInt();
+				for (int i = 0; i < sentenceCount; i++) {
+					leaf.sentences.add(readString(in));
+				}
+				node.setLeafInformation(leaf);
+			}
+
+			int children = in.readInt();
+			for (int i = 0; i < children; i++) {
+				node.addChild(readNode(in));
+			}
+			return node;
+		}
+
+		private Model readModel(DataInputStream in) throws IOException {
+			if (in.readBoolean() == false) {
+				return null;
+			}
+			Model model = new Model();
+
+			int entityCount = in.readInt();
+			for (int i = 0; i < entityCount; i++) {
+				Entity entity = new Entity();
+				readType(in, entity);
+				entity.setSuperclass(readString(in));
+
+				int attributeCount = in.readInt();
+				for (int j = 0; j < attributeCount; j++) {
+					Attribute attribute = new Attribute();
+					readType(in, attribute);
+					entity.getAttributes().add(attribute);
+				}
+				model.getEntities().add(entity);
+			}
+
+			int relationshipCount = in.readInt();
+			for (int i = 0; i < relationshipCount; i++) {
+				Relationship relationship = new Relationship();
+				readType(in, relationship);
+
+				int connectCount = in.readInt();
+				for (int j = 0; j < connectCount; j++) {
+					RelationEntity re = new RelationEntity();
+					re.setEntityId(in.readInt());
+					re.setCardinality(readString(in));
+					re.setParticipation(readString(in));
+					String name = readString(in);
+					re.setName(name, readString(in));
+					relationship.getConnects().add(re);
+				}
+				model.getRelationships().add(relationship);
+			}
+			return model;
+		}
+
+		private void readType(DataInputStream in, nlp.objects.Type type)
+				throws IOException {
+			type.setId(in.readInt());
+			type.setWordIndex(in.readInt());
+			type.setLength(in.readInt());
+			String name = readString(in);
+			type.setName(name, readString(in));
+		}
+
+		private Branch readBranch(DataInputStream in) throws IOException {
+			Node leafNode = nodes.get(in.readInt());
+			int size = in.readInt();
+
+			Branch branch = new Branch();
+			for (int i = 0; i < size; i++) {
+				branch.add(new SerialNode(readString(in)));
+			}
+			branch.leafInformation = leafNode.getLeafInformation();
+			branch.sentences = leafNode.getLeafInformation().sentences;
+			return branch;
+		}
+
+		private String readString(DataInputStream in) throws IOException {
+			int index = in.readInt();
+			return index == NULL_STRING ? null : strings[index];
+		}
+	}
+
+	private static long checksum(File file) throws IOException {
+		if (file.isFile() == false) {
+			return 0;
+		}
+		CRC32 crc = new CRC32();
+		crc.update(Files.readAllBytes(file.toPath()));
+		return crc.getValue();
+	}
+}
@@ -18,7 +18,7 @@ public class Name {
 				name += tokens.get(i).getName() + " ";
 //				name += getName(tokens, i) + " ";
 			}
-			catch (ArrayIndexOutOfBoundsException aioobe) {
+			catch (IndexOutOfBoundsException aioobe) {
 				erTagger.ERTagger.LOGGER.info(String.format("Failed to build word at wordId: %d and Length: %d", wordId, length));
 				break;
 			}
@@ -0,0 +1,161 @@
+package util.logging;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+
+import util.metrics.Counter;
+import util.metrics.Metrics;
+
+/**
+ * Handler that queues the records in a fixed size ring buffer and hands them
+ * to the target handler on a thread of its own, so that logging threads do
+ * not wait for the console.
+ *
+ * When the buffer is full, records below WARNING are dropped and counted in
+ * the metric logging.dropped. Warnings and errors wait for room instead.
+ *
+ * Records are formatted by the target on the writer thread. Formatters that
+ * print the source class or method do not find it there, they fall back to
+ * the logger name.
+ */
+public class AsyncHandler extends Handler {
+
+	/* Queued by close, the writer stops when it gets to it */
+	private static final LogRecord END = new LogRecord(Level.OFF, "");
+
+	private final Handler target;
+	private final ArrayBlockingQueue<LogRecord> ring;
+	private final Thread writer;
+
+	private final AtomicLong queued = new AtomicLong();
+	/* Records handed to the target, only the writer changes it */
+	private volatile long written;
+	private volatile boolean closed;
+
+	private final Counter dropped = Metrics.getInstance().counter("logging.dropped");
+
+	/**
+	 * @param capacity
+	 *            Number of records the buffer holds
+	 */
+	public AsyncHandler(Handler target, int capacity) {
+		this.target = target;
+		this.ring = new ArrayBlockingQueue<LogRecord>(capacity);
+
+		writer = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				write();
+			}
+		}, "log-writer");
+		writer.setDaemon(true);
+		writer.start();
+	}
+
+	@Override
+	public void publish(LogRecord record) {
+		if (closed || isLoggable(record) == false) {
+			return;
+		}
+		queued.incrementAndGet();
+		if (ring.offer(record)) {
+			return;
+		}
+		if (record.getLevel().intValue() < Level.WARNING.intValue()) {
+			queued.decrementAndGet();
+			dropped.increment();
+			return;
+		}
+		putUninterruptibly(record);
+	}
+
+	private void putUninterruptibly(LogRecord record) {
+		boolean interrupted = false;
+		try {
+			while (true) {
+				try {
+					ring.put(record);
+					return;
+				} catch (InterruptedException ie) {
+					interrupted = true;
+				}
+			}
+		} finally {
+			if (interrupted) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	private void write() {
+		List<LogRecord> batch = new ArrayList<LogRecord>();
+		while (true) {
+			LogRecord first;
+			try {
+				first = ring.take();
+			} catch (InterruptedException ie) {
+				continue;
+			}
+			batch.add(first);
+			ring.drainTo(batch);
+
+			for (LogRecord record : batch) {
+				if (record == END) {
+					target.flush();
+					return;
+				}
+				target.publish(record);
+				written++;
+			}
+			batch.clear();
+			target.flush();
+		}
+	}
+
+	/**
+	 * Waits for the records queued so far to be written, then flushes the
+	 * target.
+	 */
+	@Override
+	public void flush() {
+		long until = queued.get();
+		while (written < until && writer.isAlive()) {
+			LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+		}
+		target.flush();
+	}
+
+	/**
+	 * Writes the records still in the buffer and closes the target. Later
+	 * records are ignored.
+	 */
+	@Override
+	public void close() {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		putUninterruptibly(END);
+		try {
+			writer.join();
+		} catch (InterruptedException ie) {
+			Thread.currentThread().interrupt();
+		}
+		target.close();
+	}
+
+	/**
+	 * @return number of records dropped because the buffer was full, by all
+	 *         AsyncHandlers
+	 */
+	public long getDropped() {
+		return dropped.get();
+	}
+}
@@ -6,6 +6,14 @@ import java.util.logging.Level;
 
 public class LoggerSetup {
 
+	/* Records the console may fall behind by before finer ones are dropped */
+	private static final int BUFFER_SIZE = 8192;
+
+	/**
+	 * Logs to the console, through an AsyncHandler so that logging threads do
+	 * not wait for the console. The handler is closed, and the buffer written
+	 * out, when the LogManager is reset at shutdown.
+	 */
 	static public void setup(java.util.logging.Logger logger) throws IOException {
 		
 		logger.setUseParentHandlers(false);
@@ -16,7 +24,7 @@ public class LoggerSetup {
 		handler.setLevel(Level.ALL);
 		handler.setFormatter(formatter);
 
-		logger.addHandler(handler);
+		logger.addHandler(new AsyncHandler(handler, BUFFER_SIZE));
 	}
 
 
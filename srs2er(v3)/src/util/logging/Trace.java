@@ -0,0 +1,82 @@
+package util.logging;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import util.metrics.Counter;
+import util.metrics.Metrics;
+
+/**
+ * Diagnostics of one category of the hot paths, e.g. lookup or scoring.
+ *
+ * Messages go to a child logger of the given parent, so they reach the
+ * parent's handlers and follow its level unless the child's level is set.
+ * The caller checks isLoggable before building a message, so nothing is
+ * formatted while the level is off:
+ *
+ * <pre>
+ * if (TRACE.isLoggable(Level.CONFIG)) {
+ * 	TRACE.log(Level.CONFIG, String.format(...));
+ * }
+ * </pre>
+ *
+ * A category can be sampled, so that it stays on under load: only about one
+ * in every n events is logged, the others are counted in the metric
+ * logging.&lt;category&gt;.sampled_out. The rate is set with setSampling, or
+ * with the system property trace.&lt;category&gt;.sampling.
+ */
+public class Trace {
+
+	private final Logger logger;
+	private final Counter sampledOut;
+	private volatile int sampling;
+
+	public Trace(Logger parent, String category) {
+		this.logger = Logger.getLogger(parent.getName() + "." + category);
+		this.sampledOut = Metrics.getInstance().counter("logging." + category + ".sampled_out");
+		this.sampling = Math.max(1, Integer.getInteger("trace." + category + ".sampling", 1));
+	}
+
+	/**
+	 * @return true if an event at this level is to be logged. With sampling,
+	 *         every call decides on one event.
+	 */
+	public boolean isLoggable(Level level) {
+		if (logger.isLoggable(level) == false) {
+			return false;
+		}
+		int every = sampling;
+		if (every == 1 || ThreadLocalRandom.current().nextInt(every) == 0) {
+			return true;
+		}
+		sampledOut.increment();
+		return false;
+	}
+
+	/**
+	 * Logs the message. Check isLoggable first if it takes any work to build.
+	 */
+	public void log(Level level, String message) {
+		logger.log(level, message);
+	}
+
+	/**
+	 * @param every
+	 *            Log about one in every so many events, 1 logs all
+	 */
+	public void setSampling(int every) {
+		if (every < 1) {
+			throw new IllegalArgumentException("Sampling must be positive: " + every);
+		}
+		sampling = every;
+	}
+
+	public int getSampling() {
+		return sampling;
+	}
+
+	public Logger getLogger() {
+		return logger;
+	}
+}
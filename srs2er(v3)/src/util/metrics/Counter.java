@@ -0,0 +1,37 @@
+package util.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Count that many threads add to at once, see Metrics.counter.
+ */
+public class Counter {
+
+	private final String name;
+	private final LongAdder value = new LongAdder();
+
+	Counter(String name) {
+		this.name = name;
+	}
+
+	public void increment() {
+		value.increment();
+	}
+
+	public void add(long amount) {
+		value.add(amount);
+	}
+
+	public long get() {
+		return value.sum();
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	@Override
+	public String toString() {
+		return name + ": " + value.sum();
+	}
+}
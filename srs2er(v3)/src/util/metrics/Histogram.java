@@ -0,0 +1,161 @@
+package util.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Distribution of latencies, or of any other non negative values, see
+ * Metrics.histogram.
+ *
+ * Values are counted in buckets of logarithmic size. Every power of two is
+ * split into SUB_BUCKETS buckets of equal width, so a bucket is never wider
+ * than 1/32 of the values in it, whatever their magnitude. Recording is an
+ * increment of one bucket, without locks or allocation. Percentiles are read
+ * from a snapshot of the buckets and are exact up to the bucket width.
+ */
+public class Histogram {
+
+	private static final int SUB_BUCKET_BITS = 5;
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+	/* Values below SUB_BUCKETS have a bucket each, then SUB_BUCKETS per power of two */
+	private static final int BUCKETS = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+	private final String name;
+	private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+	private final LongAdder sum = new LongAdder();
+	private final AtomicLong max = new AtomicLong();
+
+	Histogram(String name) {
+		this.name = name;
+	}
+
+	/**
+	 * Counts the value. Negative values are counted as zero.
+	 */
+	public void record(long value) {
+		if (value < 0) {
+			value = 0;
+		}
+		buckets.incrementAndGet(bucket(value));
+		sum.add(value);
+		long current;
+		do {
+			current = max.get();
+		} while (value > current && max.compareAndSet(current, value) == false);
+	}
+
+	/**
+	 * Records the time since start, both from System.nanoTime.
+	 */
+	public void recordSince(long startNanos) {
+		record(System.nanoTime() - startNanos);
+	}
+
+	static int bucket(long value) {
+		if (value < SUB_BUCKETS) {
+			return (int) value;
+		}
+		int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+		return (shift + 1) * SUB_BUCKETS + (int) ((value >>> shift) - SUB_BUCKETS);
+	}
+
+	/* Largest value that falls into the bucket */
+	static long highestValue(int bucket) {
+		if (bucket < SUB_BUCKETS) {
+			return bucket;
+		}
+		int shift = bucket / SUB_BUCKETS - 1;
+		long lowest = (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << shift;
+		return lowest + (1L << shift) - 1;
+	}
+
+	/**
+	 * Copy of the counts. Values recorded while copying may be missing from
+	 * some of the figures.
+	 */
+	public Snapshot snapshot() {
+		long[] counts = new long[BUCKETS];
+		long count = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			counts[i] = buckets.get(i);
+			count += counts[i];
+		}
+		return new Snapshot(name, counts, count, sum.sum(), max.get());
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	@Override
+	public String toString() {
+		return snapshot().toString();
+	}
+
+	public static class Snapshot {
+
+		private final String name;
+		private final long[] counts;
+		private final long count;
+		private final long sum;
+		private final long max;
+
+		Snapshot(String name, long[] counts, long count, long sum, long max) {
+			this.name = name;
+			this.counts = counts;
+			this.count = count;
+			this.sum = sum;
+			this.max = max;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public long getCount() {
+			return count;
+		}
+
+		public long getSum() {
+			return sum;
+		}
+
+		public long getMax() {
+			return max;
+		}
+
+		public double getMean() {
+			return count == 0 ? 0.0 : (double) sum / count;
+		}
+
+		/**
+		 * @param percentile
+		 *            Between 0 and 100
+		 * @return the value that the given percentage of the values is at or
+		 *         below, rounded up to the end of its bucket. Zero if nothing
+		 *         was recorded.
+		 */
+		public long getValueAtPercentile(double percentile) {
+			if (count == 0) {
+				return 0;
+			}
+			long rank = Math.max(1, (long) Math.ceil(percentile / 100.0 * count));
+			long seen = 0;
+			for (int i = 0; i < counts.length; i++) {
+				seen += counts[i];
+				if (seen >= rank) {
+					return Math.min(highestValue(i), max);
+				}
+			}
+			return max;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("%s: %d values, mean %.0f, p50 %d, p99 %d, max %d", name,
+					count, getMean(), getValueAtPercentile(50), getValueAtPercentile(99), max);
+		}
+	}
+}
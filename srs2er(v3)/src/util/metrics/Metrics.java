@@ -0,0 +1,149 @@
+package util.metrics;
+
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Counters and latency histograms of the tagging stages, by name.
+ *
+ * Classes look up their metrics once, into static fields, and update them
+ * without locking. Latencies are recorded in nanoseconds. The current values
+ * are exported with toJson or toCsv, e.g. by the /metrics endpoint of
+ * TaggerServer.
+ *
+ * Names are dotted, the first part names the stage: annotation, cache,
+ * lookup, scoring, model, erd and server.
+ */
+public class Metrics {
+
+	private static final Metrics INSTANCE = new Metrics();
+
+	/* Percentiles in the exports */
+	private static final double[] PERCENTILES = { 50, 90, 99, 99.9 };
+	private static final String[] PERCENTILE_NAMES = { "p50", "p90", "p99", "p999" };
+
+	private final ConcurrentHashMap<String, Counter> counters = new ConcurrentHashMap<String, Counter>();
+	private final ConcurrentHashMap<String, Histogram> histograms = new ConcurrentHashMap<String, Histogram>();
+
+	private Metrics() {
+	}
+
+	public static Metrics getInstance() {
+		return INSTANCE;
+	}
+
+	/**
+	 * @return the counter with this name, created on first use
+	 */
+	public Counter counter(String name) {
+		Counter counter = counters.get(name);
+		if (counter == null) {
+			Counter created = new Counter(name);
+			counter = counters.putIfAbsent(name, created);
+			if (counter == null) {
+				counter = created;
+			}
+		}
+		return counter;
+	}
+
+	/**
+	 * @return the histogram with this name, created on first use
+	 */
+	public Histogram histogram(String name) {
+		Histogram histogram = histograms.get(name);
+		if (histogram == null) {
+			Histogram created = new Histogram(name);
+			histogram = histograms.putIfAbsent(name, created);
+			if (histogram == null) {
+				histogram = created;
+			}
+		}
+		return histogram;
+	}
+
+	/* Current values, sorted by name */
+	private Map<String, Long> counterValues() {
+		Map<String, Long> values = new TreeMap<String, Long>();
+		for (Counter counter : counters.values()) {
+			values.put(counter.getName(), counter.get());
+		}
+		return values;
+	}
+
+	private Map<String, Histogram.Snapshot> histogramSnapshots() {
+		Map<String, Histogram.Snapshot> snapshots = new TreeMap<String, Histogram.Snapshot>();
+		for (Histogram histogram : histograms.values()) {
+			snapshots.put(histogram.getName(), histogram.snapshot());
+		}
+		return snapshots;
+	}
+
+	/**
+	 * Snapshot of all metrics as a JSON object, with the counters by name and
+	 * count, sum, mean, max and percentiles of every histogram by name.
+	 */
+	public String toJson() {
+		StringBuilder json = new StringBuilder();
+		json.append("{\n  \"counters\": {");
+		String separator = "\n";
+		for (Map.Entry<String, Long> counter : counterValues().entrySet()) {
+			json.append(separator).append("    ").append(quote(counter.getKey())).append(": ")
+					.append(counter.getValue());
+			separator = ",\n";
+		}
+		json.append("\n  },\n  \"histograms\": {");
+		separator = "\n";
+		for (Histogram.Snapshot snapshot : histogramSnapshots().values()) {
+			json.append(separator).append("    ").append(quote(snapshot.getName()))
+					.append(": {\"count\": ").append(snapshot.getCount())
+					.append(", \"sum\": ").append(snapshot.getSum())
+					.append(", \"mean\": ")
+					.append(String.format(Locale.ROOT, "%.1f", snapshot.getMean()));
+			for (int i = 0; i < PERCENTILES.length; i++) {
+				json.append(", \"").append(PERCENTILE_NAMES[i]).append("\": ")
+						.append(snapshot.getValueAtPercentile(PERCENTILES[i]));
+			}
+			json.append(", \"max\": ").append(snapshot.getMax()).append('}');
+			separator = ",\n";
+		}
+		json.append("\n  }\n}\n");
+		return json.toString();
+	}
+
+	/**
+	 * Snapshot of all metrics as CSV, one line per metric. Counters only have
+	 * a count.
+	 */
+	public String toCsv() {
+		StringBuilder csv = new StringBuilder("name,type,count,sum,mean");
+		for (String percentile : PERCENTILE_NAMES) {
+			csv.append(',').append(percentile);
+		}
+		csv.append(",max\n");
+
+		for (Map.Entry<String, Long> counter : counterValues().entrySet()) {
+			csv.append(counter.getKey()).append(",counter,").append(counter.getValue());
+			for (int i = 0; i < PERCENTILES.length + 3; i++) {
+				csv.append(',');
+			}
+			csv.append('\n');
+		}
+		for (Histogram.Snapshot snapshot : histogramSnapshots().values()) {
+			csv.append(snapshot.getName()).append(",histogram,").append(snapshot.getCount())
+					.append(',').append(snapshot.getSum()).append(',')
+					.append(String.format(Locale.ROOT, "%.1f", snapshot.getMean()));
+			for (double percentile : PERCENTILES) {
+				csv.append(',').append(snapshot.getValueAtPercentile(percentile));
+			}
+			csv.append(',').append(snapshot.getMax()).append('\n');
+		}
+		return csv.toString();
+	}
+
+	private static String quote(String name) {
+		return '"' + name.replace("\\", "\\\\").replace("\"", "\\\"") + '"';
+	}
+}
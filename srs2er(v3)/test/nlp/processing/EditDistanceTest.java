@@ -0,0 +1,67 @@
+package nlp.processing;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import nlp.objects.Sentence;
+
+import org.junit.Test;
+
+import trie.TrainingData;
+import trie.Trie;
+import trie.serial.Branch;
+import trie.serial.Match;
+import trie.serial.SerialTrie;
+
+public class EditDistanceTest {
+
+	private static final int[] MAX_COSTS = { 1, 3, 10, 40, 100000 };
+
+	/* The banded distance is exact below maxCost and ABANDONED from there */
+	@Test
+	public void bandedEqualsFull() throws Exception {
+		for (int seed = 0; seed < TrainingData.SEEDS; seed++) {
+			Random random = new Random(seed);
+			List<Branch> branches = branches(random);
+			for (Sentence probe : TrainingData.probes(random, 10)) {
+				for (Branch branch : branches) {
+					int full = EditDistance.editDistance(probe, branch);
+					for (int maxCost : MAX_COSTS) {
+						assertEquals("seed " + seed + " maxCost " + maxCost + " " + probe.getValue()
+								+ " " + branch, full < maxCost ? full : EditDistance.ABANDONED,
+								EditDistance.editDistance(probe, branch, maxCost));
+					}
+				}
+			}
+		}
+	}
+
+	@Test
+	public void extendedEqualsFull() throws Exception {
+		for (int seed = 0; seed < TrainingData.SEEDS; seed++) {
+			Random random = new Random(seed);
+			List<Branch> branches = branches(random);
+			for (Sentence probe : TrainingData.probes(random, 5)) {
+				for (Branch branch : branches) {
+					assertEquals("seed " + seed + " " + probe.getValue() + " " + branch,
+							EditDistance.editDistance(probe, branch),
+							(int) EditDistance.editDistanceExtended(probe, branch).first());
+				}
+			}
+		}
+	}
+
+	/* Every branch of a random trie */
+	private static List<Branch> branches(Random random) throws Exception {
+		Trie trie = TrainingData.build(TrainingData.sample(random));
+		Sentence any = TrainingData.sentences().get(0);
+		List<Branch> branches = new ArrayList<Branch>();
+		for (Match match : new SerialTrie(trie).match(any, Integer.MAX_VALUE)) {
+			branches.add(match.getBranch());
+		}
+		return branches;
+	}
+}
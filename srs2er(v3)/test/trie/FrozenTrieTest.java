@@ -0,0 +1,77 @@
+package trie;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import nlp.objects.Sentence;
+
+import org.junit.Test;
+
+public class FrozenTrieTest {
+
+	/* Updates in batches of random size, some re-adding known sentences */
+	@Test
+	public void updateEqualsFreeze() throws Exception {
+		for (int seed = 0; seed < TrainingData.SEEDS; seed++) {
+			Random random = new Random(seed);
+			List<Sentence> sentences = TrainingData.sample(random);
+			int position = random.nextInt(sentences.size());
+			Trie trie = TrainingData.build(sentences.subList(0, position));
+			FrozenTrie frozen = FrozenTrie.freeze(trie);
+
+			while (position < sentences.size()) {
+				int end = Math.min(sentences.size(), position + 1 + random.nextInt(60));
+				List<Sentence> batch = new ArrayList<Sentence>(sentences.subList(position, end));
+				if (position > 0) {
+					batch.add(sentences.get(random.nextInt(position)));
+				}
+				position = end;
+
+				Trie updated = trie.withSentences(batch);
+				String before = TrainingData.describe(frozen);
+				FrozenTrie frozenUpdate = frozen.update(trie, updated);
+				assertEquals("seed " + seed, before, TrainingData.describe(frozen));
+				assertEquals("seed " + seed, TrainingData.describe(FrozenTrie.freeze(updated)),
+						TrainingData.describe(frozenUpdate));
+
+				trie = updated;
+				frozen = frozenUpdate;
+			}
+		}
+	}
+
+	/* Sentences that end at existing nodes replace leaves, which are dropped */
+	@Test
+	public void updatesKeepLeavesBounded() throws Exception {
+		List<Sentence> sentences = TrainingData.sentences();
+		Trie trie = TrainingData.build(sentences);
+		FrozenTrie frozen = FrozenTrie.freeze(trie);
+
+		Random random = new Random(0);
+		for (int round = 0; round < 300; round++) {
+			List<Sentence> batch = new ArrayList<Sentence>();
+			for (int i = 0; i < 5; i++) {
+				batch.add(sentences.get(random.nextInt(sentences.size())));
+			}
+			Trie updated = trie.withSentences(batch);
+			frozen = frozen.update(trie, updated);
+			trie = updated;
+		}
+
+		FrozenTrie rebuilt = FrozenTrie.freeze(trie);
+		assertEquals(TrainingData.describe(rebuilt), TrainingData.describe(frozen));
+		int live = 0;
+		for (int node = 0; node < rebuilt.size(); node++) {
+			if (rebuilt.leaf(node) != null) {
+				live++;
+			}
+		}
+		/* Only the leaf arrays differ, by a reference per dead leaf */
+		long dead = (frozen.estimateBytes() - rebuilt.estimateBytes()) / FrozenTrie.REFERENCE;
+		assertTrue(dead + " dead leaves, " + live + " live", dead <= live / 3 + 2);
+	}
+}
@@ -0,0 +1,236 @@
+package trie;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.logging.Level;
+
+import javax.xml.bind.JAXBException;
+
+import erTagger.ERTagger;
+import nlp.objects.Attribute;
+import nlp.objects.Entity;
+import nlp.objects.Model;
+import nlp.objects.RelationEntity;
+import nlp.objects.Relationship;
+import nlp.objects.Sentence;
+import nlp.objects.SentenceReader;
+import nlp.objects.TagDataLoader;
+import nlp.objects.Type;
+import nlp.objects.Word;
+import nlp.processing.LemmaDictionary;
+
+/**
+ * Training sentences and random tries for the tests. Run the tests from the
+ * project directory, the sentences are read from data/training.
+ *
+ * The tests compare an optimized path with the plain one on random tries,
+ * one for every seed below SEEDS. Nothing is annotated: the sentences come
+ * tagged, and the lemmas of their names are added to the LemmaDictionary
+ * from the tokens.
+ */
+public class TrainingData {
+
+	public static final int SEEDS = 42;
+
+	/* Largest random trie, in sentences */
+	public static final int MAX_SENTENCES = 1700;
+
+	private static final String TRAINING_DIRECTORY = "data/training";
+
+	private static final String[] TAGS = { "NN", "NNS", "VBZ", "DT", "JJ", "IN", "VB", "CC",
+			"MD", "WRB" };
+
+	private static List<Sentence> sentences;
+
+	/**
+	 * @return the sentences of every training file, in file name order. The
+	 *         list is shared and cannot be modified.
+	 */
+	public static synchronized List<Sentence> sentences() throws JAXBException, IOException {
+		if (sentences == null) {
+			ERTagger.LOGGER.setLevel(Level.WARNING);
+			TagDataLoader.getInstance().Load();
+
+			File[] files = new File(TRAINING_DIRECTORY).listFiles();
+			Arrays.sort(files);
+			List<Sentence> read = new ArrayList<Sentence>();
+			for (File file : files) {
+				if (file.getName().endsWith(".xml") == false) {
+					continue;
+				}
+				try (SentenceReader reader = new SentenceReader(file)) {
+					Sentence sentence;
+					while ((sentence = reader.next()) != null) {
+						if (sentence.getTokens().isEmpty() == false) {
+							read.add(sentence);
+						}
+					}
+				}
+			}
+			addLemmas(read);
+			sentences = Collections.unmodifiableList(read);
+		}
+		return sentences;
+	}
+
+	/**
+	 * @return between 1 and MAX_SENTENCES training sentences, in random order
+	 */
+	public static List<Sentence> sample(Random random) throws JAXBException, IOException {
+		List<Sentence> sample = new ArrayList<Sentence>(sentences());
+		Collections.shuffle(sample, random);
+		return sample.subList(0, 1 + random.nextInt(Math.min(MAX_SENTENCES, sample.size())));
+	}
+
+	/**
+	 * Training sentences with some tokens dropped and some tags replaced, so
+	 * that they match the branches at various costs.
+	 */
+	public static List<Sentence> probes(Random random, int count) throws JAXBException,
+			IOException {
+		List<Sentence> training = sentences();
+		List<Sentence> probes = new ArrayList<Sentence>(count);
+		while (probes.size() < count) {
+			Sentence sentence = training.get(random.nextInt(training.size()));
+			List<Word> tokens = new ArrayList<Word>();
+			for (Word token : sentence.getTokens()) {
+				if (random.nextInt(10) == 0) {
+					continue;
+				}
+				Word word = new Word();
+				word.setId(token.getId());
+				word.setName(token.getName());
+				word.setLemmatizedName(token.getLemmatizedName());
+				word.setPost(random.nextInt(6) == 0 ? TAGS[random.nextInt(TAGS.length)] : token
+						.getPost());
+				tokens.add(word);
+			}
+			if (tokens.isEmpty()) {
+				continue;
+			}
+			Sentence probe = new Sentence();
+			probe.setValue(sentence.getValue());
+			probe.setTokens(tokens);
+			probes.add(probe);
+		}
+		return probes;
+	}
+
+	public static Trie build(List<Sentence> sentences) {
+		Trie trie = new Trie();
+		for (Sentence sentence : sentences) {
+			trie.insert(sentence);
+		}
+		return trie;
+	}
+
+	/**
+	 * @return every node with its words, stop word probability and leaf, one
+	 *         per line in pre order
+	 */
+	public static String describe(Trie trie) {
+		StringBuilder description = new StringBuilder();
+		for (Node root : trie.getRoot()) {
+			describe(root, "", description);
+		}
+		return description.toString();
+	}
+
+	private static void describe(Node node, String indent, StringBuilder description) {
+		description.append(indent).append(node.getTag()).append(' ').append(node.getWords())
+				.append(' ').append(node.getIsStopWordProbability());
+		LeafNode leaf = node.getLeafInformation();
+		if (leaf != null) {
+			description.append(" leaf ").append(leaf.sentences).append(' ');
+			describe(leaf.getDataModel(), description);
+		}
+		description.append('\n');
+		for (Node child : node.getChildren()) {
+			describe(child, indent + ' ', description);
+		}
+	}
+
+	/**
+	 * @return every node with its tag, stop word probability, leaf and counts,
+	 *         one per line in pre order. Leaves are told apart by identity.
+	 */
+	public static String describe(FrozenTrie trie) {
+		StringBuilder description = new StringBuilder();
+		describe(trie, FrozenTrie.ROOT, "", description);
+		return description.append(trie.maxDepth()).toString();
+	}
+
+	private static void describe(FrozenTrie trie, int node, String indent,
+			StringBuilder description) {
+		description.append(indent).append(trie.tag(node)).append(' ')
+				.append(trie.stopWordProbability(node)).append(' ')
+				.append(System.identityHashCode(trie.leaf(node))).append(' ')
+				.append(trie.branchCount(node)).append(' ')
+				.append(trie.descendantsEnd(node) - trie.childStart(node)).append('\n');
+		for (int child = trie.childStart(node); child < trie.childEnd(node); child++) {
+			describe(trie, child, indent + ' ', description);
+		}
+	}
+
+	/* Every field of the model */
+	private static void describe(Model model, StringBuilder description) {
+		if (model == null) {
+			description.append("no model");
+			return;
+		}
+		for (Entity entity : model.getEntities()) {
+			describe(entity, description);
+			description.append(" superclass ").append(entity.getSuperclass()).append(" (");
+			for (Attribute attribute : entity.getAttributes()) {
+				describe(attribute, description);
+			}
+			description.append(')');
+		}
+		for (Relationship relationship : model.getRelationships()) {
+			describe(relationship, description);
+			description.append(" (");
+			for (RelationEntity connected : relationship.getConnects()) {
+				description.append(connected.getEntityId()).append(' ')
+						.append(connected.getCardinality()).append(' ')
+						.append(connected.getParticipation()).append(' ')
+						.append(connected.getName()).append(' ')
+						.append(connected.getName() == null ? null : connected.getLemmName())
+						.append(';');
+			}
+			description.append(')');
+		}
+	}
+
+	private static void describe(Type type, StringBuilder description) {
+		description.append(' ').append(type.getId()).append(' ').append(type.getWordIndex())
+				.append(' ').append(type.getLength()).append(' ').append(type.getName())
+				.append(' ').append(type.getLemmName()).append(';');
+	}
+
+	/* Lemmas of every run of words, as Lookup and the snapshots ask for them */
+	private static void addLemmas(List<Sentence> sentences) {
+		LemmaDictionary dictionary = LemmaDictionary.getInstance();
+		dictionary.add("", "");
+		for (Sentence sentence : sentences) {
+			List<Word> tokens = sentence.getTokens();
+			for (int from = 0; from < tokens.size(); from++) {
+				StringBuilder name = new StringBuilder();
+				StringBuilder lemma = new StringBuilder();
+				for (int to = from; to < tokens.size(); to++) {
+					if (to > from) {
+						name.append(' ');
+						lemma.append('_');
+					}
+					name.append(tokens.get(to).getName());
+					lemma.append(tokens.get(to).getLemmatizedName());
+					dictionary.add(name.toString().toLowerCase(), lemma.toString().toLowerCase());
+				}
+			}
+		}
+	}
+}
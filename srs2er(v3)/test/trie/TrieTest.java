@@ -0,0 +1,84 @@
+package trie;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import nlp.objects.Sentence;
+
+import org.junit.Test;
+
+public class TrieTest {
+
+	/* Tries built from consecutive chunks, merged from left to right */
+	@Test
+	public void mergeEqualsSequentialBuild() throws Exception {
+		for (int seed = 0; seed < TrainingData.SEEDS; seed++) {
+			Random random = new Random(seed);
+			List<Sentence> sentences = TrainingData.sample(random);
+			String expected = TrainingData.describe(TrainingData.build(sentences));
+
+			Trie merged = new Trie();
+			for (List<Sentence> chunk : chunks(sentences, random)) {
+				merged.merge(TrainingData.build(chunk));
+			}
+			assertEquals("seed " + seed, expected, TrainingData.describe(merged));
+		}
+	}
+
+	/* Merged tries merged again, as ERTagger.buildTrie does */
+	@Test
+	public void pairwiseMergeEqualsSequentialBuild() throws Exception {
+		for (int seed = 0; seed < TrainingData.SEEDS; seed++) {
+			Random random = new Random(seed);
+			List<Sentence> sentences = TrainingData.sample(random);
+			String expected = TrainingData.describe(TrainingData.build(sentences));
+
+			List<Trie> tries = new ArrayList<Trie>();
+			for (List<Sentence> chunk : chunks(sentences, random)) {
+				tries.add(TrainingData.build(chunk));
+			}
+			while (tries.size() > 1) {
+				List<Trie> merged = new ArrayList<Trie>();
+				for (int i = 0; i < tries.size(); i += 2) {
+					if (i + 1 < tries.size()) {
+						tries.get(i).merge(tries.get(i + 1));
+					}
+					merged.add(tries.get(i));
+				}
+				tries = merged;
+			}
+			assertEquals("seed " + seed, expected, TrainingData.describe(tries.get(0)));
+		}
+	}
+
+	@Test
+	public void withSentencesLeavesOriginalUnchanged() throws Exception {
+		for (int seed = 0; seed < TrainingData.SEEDS; seed++) {
+			Random random = new Random(seed);
+			List<Sentence> sentences = TrainingData.sample(random);
+			int initial = random.nextInt(sentences.size());
+			Trie trie = TrainingData.build(sentences.subList(0, initial));
+			String before = TrainingData.describe(trie);
+
+			Trie updated = trie.withSentences(sentences.subList(initial, sentences.size()));
+			assertEquals("seed " + seed, before, TrainingData.describe(trie));
+			assertEquals("seed " + seed, TrainingData.describe(TrainingData.build(sentences)),
+					TrainingData.describe(updated));
+		}
+	}
+
+	/* Consecutive chunks of random length, from single sentences up */
+	private static List<List<Sentence>> chunks(List<Sentence> sentences, Random random) {
+		int maximum = 1 + random.nextInt(200);
+		List<List<Sentence>> chunks = new ArrayList<List<Sentence>>();
+		for (int from = 0; from < sentences.size();) {
+			int to = Math.min(sentences.size(), from + 1 + random.nextInt(maximum));
+			chunks.add(sentences.subList(from, to));
+			from = to;
+		}
+		return chunks;
+	}
+}
@@ -0,0 +1,119 @@
+package trie.serial;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import nlp.objects.Sentence;
+
+import org.junit.Test;
+
+import trie.FrozenTrie;
+import trie.TrainingData;
+import trie.Trie;
+
+public class SerialTrieTest {
+
+	/* Tries below PARALLEL_THRESHOLD branches are scored sequentially anyway */
+	@Test
+	public void parallelEqualsSequential() throws Exception {
+		for (int seed = 0; seed < TrainingData.SEEDS; seed++) {
+			Random random = new Random(seed);
+			Trie trie = TrainingData.build(TrainingData.sample(random));
+			FrozenTrie frozen = FrozenTrie.freeze(trie);
+			SerialTrie sequential = new SerialTrie(trie);
+			sequential.useTrieMatcher(frozen);
+			SerialTrie parallel = new SerialTrie(trie);
+			parallel.useTrieMatcher(frozen);
+			parallel.setParallelism(4);
+			SerialTrie scanning = new SerialTrie(trie);
+			scanning.setParallelism(4);
+
+			try {
+				for (Sentence probe : TrainingData.probes(random, 20)) {
+					String message = "seed " + seed + " " + probe.getValue();
+					for (int threshold : TrieMatcherTest.THRESHOLDS) {
+						String expected = describe(sequential.match(probe, threshold));
+						assertEquals(message, expected, describe(parallel.match(probe, threshold)));
+						assertEquals(message, expected, describe(scanning.match(probe, threshold)));
+					}
+					for (int k : new int[] { 1, 5, 20 }) {
+						String expected = describe(sequential.lookupTopK(probe, k, 40));
+						assertEquals(message, expected, describe(parallel.lookupTopK(probe, k, 40)));
+						assertEquals(message, expected, describe(scanning.lookupTopK(probe, k, 40)));
+					}
+				}
+			} finally {
+				parallel.setParallelism(1);
+				scanning.setParallelism(1);
+			}
+		}
+	}
+
+	/* Updates in batches of random size, some re-adding known sentences */
+	@Test
+	public void updateEqualsRebuild() throws Exception {
+		for (int seed = 0; seed < TrainingData.SEEDS; seed++) {
+			Random random = new Random(seed);
+			List<Sentence> sentences = TrainingData.sample(random);
+			int position = random.nextInt(sentences.size());
+			Trie trie = TrainingData.build(sentences.subList(0, position));
+			FrozenTrie frozen = FrozenTrie.freeze(trie);
+			SerialTrie sTrie = new SerialTrie(trie);
+			sTrie.useTrieMatcher(frozen);
+			List<Sentence> probes = TrainingData.probes(random, 10);
+
+			while (position < sentences.size()) {
+				int end = Math.min(sentences.size(), position + 1 + random.nextInt(60));
+				List<Sentence> batch = new ArrayList<Sentence>(sentences.subList(position, end));
+				if (position > 0) {
+					batch.add(sentences.get(random.nextInt(position)));
+				}
+				position = end;
+
+				Trie updated = trie.withSentences(batch);
+				String before = describe(sTrie);
+				FrozenTrie frozenUpdate = frozen.update(trie, updated);
+				SerialTrie update = sTrie.update(trie, frozen, updated);
+				update.useTrieMatcher(frozenUpdate);
+				SerialTrie rebuilt = new SerialTrie(updated);
+				rebuilt.useTrieMatcher(FrozenTrie.freeze(updated));
+
+				String message = "seed " + seed + " position " + position;
+				assertEquals(message, before, describe(sTrie));
+				assertEquals(message, describe(rebuilt), describe(update));
+				for (Sentence probe : probes) {
+					assertEquals(message, describe(rebuilt.match(probe, 40)),
+							describe(update.match(probe, 40)));
+				}
+
+				trie = updated;
+				frozen = frozenUpdate;
+				sTrie = update;
+			}
+		}
+	}
+
+	/* Branches with their sentences and leaf, in branch order */
+	static String describe(SerialTrie sTrie) {
+		StringBuilder description = new StringBuilder();
+		for (Branch branch : sTrie.branches) {
+			description.append(branch).append(branch.sentences).append(' ')
+					.append(System.identityHashCode(branch.leafInformation)).append('\n');
+		}
+		return description.toString();
+	}
+
+	/* Matches by their branch, which may belong to another SerialTrie */
+	static String describe(List<Match> matches) {
+		StringBuilder description = new StringBuilder();
+		for (Match match : matches) {
+			description.append(match.getBranch()).append(match.getBranch().sentences)
+					.append(' ').append(match.getCost()).append(' ')
+					.append(match.getOperations()).append('\n');
+		}
+		return description.toString();
+	}
+}
@@ -0,0 +1,64 @@
+package trie.serial;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.util.List;
+import java.util.Random;
+
+import nlp.objects.Sentence;
+
+import org.junit.Test;
+
+import trie.FrozenTrie;
+import trie.TrainingData;
+import trie.Trie;
+
+public class TrieMatcherTest {
+
+	static final int[] THRESHOLDS = { 3, 10, 40, 100000 };
+
+	/* The matcher walks the trie, the scan scores every branch on its own */
+	@Test
+	public void matchEqualsScan() throws Exception {
+		for (int seed = 0; seed < TrainingData.SEEDS; seed++) {
+			Random random = new Random(seed);
+			Trie trie = TrainingData.build(TrainingData.sample(random));
+			SerialTrie sTrie = new SerialTrie(trie);
+			sTrie.useTrieMatcher(FrozenTrie.freeze(trie));
+
+			for (Sentence probe : TrainingData.probes(random, 20)) {
+				for (int threshold : THRESHOLDS) {
+					List<Match> scanned = sTrie.scan(probe, threshold);
+					List<Match> matched = sTrie.match(probe, threshold);
+					String message = "seed " + seed + " threshold " + threshold + " "
+							+ probe.getValue();
+					assertEquals(message, SerialTrieTest.describe(scanned),
+							SerialTrieTest.describe(matched));
+					for (int i = 0; i < scanned.size(); i++) {
+						assertSame(message, scanned.get(i).getBranch(), matched.get(i).getBranch());
+					}
+				}
+			}
+		}
+	}
+
+	@Test
+	public void topKEqualsScan() throws Exception {
+		for (int seed = 0; seed < TrainingData.SEEDS; seed++) {
+			Random random = new Random(seed);
+			Trie trie = TrainingData.build(TrainingData.sample(random));
+			SerialTrie scanning = new SerialTrie(trie);
+			SerialTrie matching = new SerialTrie(trie);
+			matching.useTrieMatcher(FrozenTrie.freeze(trie));
+
+			for (Sentence probe : TrainingData.probes(random, 20)) {
+				for (int k : new int[] { 1, 5, 20 }) {
+					assertEquals("seed " + seed + " k " + k + " " + probe.getValue(),
+							SerialTrieTest.describe(scanning.lookupTopK(probe, k, 40)),
+							SerialTrieTest.describe(matching.lookupTopK(probe, k, 40)));
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,95 @@
+package trie.serial;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import nlp.objects.Sentence;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import trie.TrainingData;
+import trie.Trie;
+
+public class TrieSnapshotTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void snapshotRoundTrips() throws Exception {
+		List<File> sources = sources("training");
+		File file = folder.newFile("trie.snapshot");
+		for (int seed = 0; seed < TrainingData.SEEDS; seed++) {
+			Random random = new Random(seed);
+			Trie trie = TrainingData.build(TrainingData.sample(random));
+			SerialTrie sTrie = new SerialTrie(trie);
+
+			TrieSnapshot.write(file, trie, sTrie, sources);
+			TrieSnapshot snapshot = TrieSnapshot.read(file, sources);
+			assertNotNull("seed " + seed, snapshot);
+			assertEquals("seed " + seed, TrainingData.describe(trie),
+					TrainingData.describe(snapshot.getTrie()));
+
+			SerialTrie restored = snapshot.getSerialTrie();
+			for (Sentence probe : TrainingData.probes(random, 10)) {
+				assertEquals("seed " + seed, SerialTrieTest.describe(sTrie.match(probe, 100000)),
+						SerialTrieTest.describe(restored.match(probe, 100000)));
+				assertEquals("seed " + seed, SerialTrieTest.describe(sTrie.lookupTopK(probe, 5, 40)),
+						SerialTrieTest.describe(restored.lookupTopK(probe, 5, 40)));
+			}
+		}
+	}
+
+	@Test
+	public void changedSourceMakesSnapshotStale() throws Exception {
+		List<File> sources = sources("training");
+		File file = folder.newFile("trie.snapshot");
+		Trie trie = TrainingData.build(TrainingData.sentences().subList(0, 100));
+		TrieSnapshot.write(file, trie, new SerialTrie(trie), sources);
+
+		Files.write(sources.get(0).toPath(), "changed".getBytes(StandardCharsets.UTF_8));
+		assertNull(TrieSnapshot.read(file, sources));
+	}
+
+	@Test
+	public void corruptSnapshotIsIgnored() throws Exception {
+		List<File> sources = sources("training");
+		File file = folder.newFile("trie.snapshot");
+		Trie trie = TrainingData.build(TrainingData.sentences().subList(0, 100));
+		TrieSnapshot.write(file, trie, new SerialTrie(trie), sources);
+
+		try (RandomAccessFile snapshot = new RandomAccessFile(file, "rw")) {
+			long last = snapshot.length() - 1;
+			snapshot.seek(last);
+			int value = snapshot.read();
+			snapshot.seek(last);
+			snapshot.write(value ^ 0xFF);
+		}
+		assertNull(TrieSnapshot.read(file, sources));
+	}
+
+	@Test
+	public void missingSnapshotIsIgnored() throws Exception {
+		assertNull(TrieSnapshot.read(new File(folder.getRoot(), "missing.snapshot"),
+				sources("training")));
+	}
+
+	/* A source file, only its length and checksum are kept in the snapshot */
+	private List<File> sources(String content) throws IOException {
+		File source = folder.newFile("source.xml");
+		Files.write(source.toPath(), content.getBytes(StandardCharsets.UTF_8));
+		return Collections.singletonList(source);
+	}
+}